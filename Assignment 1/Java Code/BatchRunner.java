@@ -0,0 +1,324 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.imageio.ImageIO;
+
+/**
+ * Batch Runner
+ * Runs every job in a commands file (lines of the form
+ * 'java ImageDisplay image_file S A w [--flags]') in one JVM without opening a
+ * window. Each job goes through three stages, reading, resampling and writing,
+ * and each stage has its own pool so the disk work of one job overlaps the
+ * resampling of another. A semaphore caps how many jobs are in flight so
+ * memory stays bounded.
+ */
+class BatchRunner {
+    String jobsPath;
+    String outputDirectory = ".";
+    String timingsPath;
+    String outputFormat = "png";
+
+    // jobs read, resampled or written at the same time
+    int maxJobsInFlight = 2;
+
+    /**
+     * Timings and outcome of one job, written as a row of the CSV.
+     */
+    static class Job {
+        final int index;
+        final String[] args;
+
+        ImageDisplay image;
+        String outputPath = "";
+        String status = "ok";
+
+        long startTime;
+        double readMillis, resampleMillis, writeMillis, totalMillis;
+
+        Job(int index, String[] args) {
+            this.index = index;
+            this.args = args;
+        }
+    }
+
+    boolean validateArgs(String[] args) {
+        // 1. --batch=commands file
+        // Followed by optional --output=dir --format=png|rgb --timings=file.csv --jobs=N --metrics=file.json
+        // --simd=0|1
+
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+
+            if (!arg.startsWith("--") || separator == -1) {
+                System.out.println("Invalid flag " + arg + ", Please enter flags in the format '--name=value'");
+                return false;
+            }
+
+            String name = arg.substring(2, separator);
+            String value = arg.substring(separator + 1);
+
+            switch (name) {
+                case "batch":
+                    jobsPath = value;
+                    break;
+                case "output":
+                    outputDirectory = value;
+                    break;
+                case "format":
+                    outputFormat = value;
+                    // Format should be png or rgb
+                    if (!outputFormat.equals("png") && !outputFormat.equals("rgb")) {
+                        System.out.println("Invalid format, Please enter either png or rgb");
+                        return false;
+                    }
+                    break;
+                case "timings":
+                    timingsPath = value;
+                    break;
+                case "metrics":
+                    ImageDisplay.metrics.jsonPath = value;
+                    break;
+                case "simd":
+                    // Jobs run side by side on the same kernels, so they are picked for the whole batch
+                    PixelKernels.select(value);
+                    break;
+                case "jobs":
+                    maxJobsInFlight = Integer.parseInt(value);
+                    // Jobs should be at least 1
+                    if (maxJobsInFlight < 1) {
+                        System.out.println("Invalid jobs, Please enter a value of at least 1");
+                        return false;
+                    }
+                    break;
+                default:
+                    System.out.println("Unknown flag " + arg);
+                    return false;
+            }
+        }
+
+        if (timingsPath == null) {
+            timingsPath = Path.of(outputDirectory, "timings.csv").toString();
+        }
+
+        System.out.println("Batch: " + jobsPath);
+        System.out.println("Output Directory: " + outputDirectory);
+        System.out.println("Output Format: " + outputFormat);
+        System.out.println("Timings: " + timingsPath);
+        System.out.println("Jobs In Flight: " + maxJobsInFlight);
+        System.out.println("Kernels: " + PixelKernels.active.getName());
+
+        return true;
+    }
+
+    /**
+     * Reads the job lines out of the commands file, skipping comments. Relative
+     * image paths are resolved against the directory holding the commands file.
+     */
+    private List<Job> readJobs() throws IOException {
+        Path jobsFile = Path.of(jobsPath).toAbsolutePath();
+        List<Job> jobs = new ArrayList<Job>();
+
+        for (String line : Files.readAllLines(jobsFile)) {
+            String[] tokens = line.trim().split("\\s+");
+
+            if (tokens.length < 6 || !tokens[0].equals("java") || !tokens[1].equals("ImageDisplay")) {
+                continue;
+            }
+
+            String[] args = Arrays.copyOfRange(tokens, 2, tokens.length);
+            args[0] = jobsFile.getParent().resolve(args[0]).normalize().toString();
+
+            jobs.add(new Job(jobs.size(), args));
+        }
+
+        return jobs;
+    }
+
+    private String getOutputPath(Job job) {
+        String fileName = Path.of(job.args[0]).getFileName().toString().replace(".rgb", "");
+
+        // image_S_A_w plus any flags, so different jobs on one image do not collide
+        StringBuilder name = new StringBuilder(fileName);
+        for (int i = 1; i < job.args.length; i++) {
+            name.append('_').append(job.args[i].replaceAll("[^A-Za-z0-9.]", ""));
+        }
+
+        return Path.of(outputDirectory, name + "." + outputFormat).toString();
+    }
+
+    private Job read(Job job) {
+        long startTime = System.nanoTime();
+
+        job.image = new ImageDisplay();
+
+        for (String arg : job.args) {
+            if (arg.startsWith("--simd=")) {
+                throw new IllegalArgumentException("Invalid job, Please pass --simd to the whole batch instead of "
+                        + String.join(" ", job.args));
+            }
+        }
+
+        if (!job.image.validateArgs(job.args)) {
+            throw new IllegalArgumentException("Invalid job " + String.join(" ", job.args));
+        }
+
+        if (job.image.streamOutputPath == null) {
+            // loadImage reports read errors itself
+            if (!job.image.loadImage()) {
+                throw new IllegalStateException("Could not read " + job.args[0]);
+            }
+        }
+
+        job.readMillis = (System.nanoTime() - startTime) / 1e6;
+        return job;
+    }
+
+    private Job resample(Job job) {
+        long startTime = System.nanoTime();
+
+        if (job.image.streamOutputPath == null) {
+            job.image.resampleImage();
+        } else {
+            // Streaming jobs read, resample and write in one pass
+            job.image.streamImage();
+            job.outputPath = job.image.streamOutputPath;
+        }
+
+        job.resampleMillis = (System.nanoTime() - startTime) / 1e6;
+        return job;
+    }
+
+    private Job write(Job job) throws IOException {
+        long startTime = System.nanoTime();
+
+        if (job.image.streamOutputPath == null) {
+            job.outputPath = getOutputPath(job);
+
+            try (StageMetrics.Stage stage = ImageDisplay.metrics.start("writeImage")) {
+                if (outputFormat.equals("png")) {
+                    ImageIO.write(job.image.scaledImage, "png", new File(job.outputPath));
+                } else {
+                    PlanarImageFile.write(job.outputPath, job.image.scaledPixels, job.image.scaledWidth,
+                            job.image.scaledHeight);
+                }
+                stage.addPixels((long) job.image.scaledWidth * job.image.scaledHeight);
+            }
+        }
+
+        // Drop the images so the next job can reuse the memory
+        job.image.closeOriginalTiles();
+        job.image = null;
+
+        job.writeMillis = (System.nanoTime() - startTime) / 1e6;
+        return job;
+    }
+
+    void run() {
+        System.setProperty("java.awt.headless", "true");
+
+        List<Job> jobs;
+        try {
+            jobs = readJobs();
+            Files.createDirectories(Path.of(outputDirectory));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        System.out.println("Jobs: " + jobs.size());
+
+        long startTime = System.nanoTime();
+
+        ExecutorService readPool = Executors.newFixedThreadPool(maxJobsInFlight);
+        ExecutorService resamplePool = Executors.newFixedThreadPool(
+                Math.min(maxJobsInFlight, Runtime.getRuntime().availableProcessors()));
+        ExecutorService writePool = Executors.newFixedThreadPool(maxJobsInFlight);
+
+        Semaphore jobsInFlight = new Semaphore(maxJobsInFlight);
+        List<CompletableFuture<Job>> futures = new ArrayList<CompletableFuture<Job>>();
+
+        for (Job job : jobs) {
+            // Wait for a finished job before reading the next one in
+            jobsInFlight.acquireUninterruptibly();
+            job.startTime = System.nanoTime();
+
+            CompletableFuture<Job> future = CompletableFuture
+                    .supplyAsync(() -> read(job), readPool)
+                    .thenApplyAsync(this::resample, resamplePool)
+                    .thenApplyAsync(current -> {
+                        try {
+                            return write(current);
+                        } catch (IOException e) {
+                            throw new CompletionException(e);
+                        }
+                    }, writePool)
+                    .whenComplete((current, error) -> {
+                        if (error != null) {
+                            job.status = "failed: " + error.getCause();
+
+                            if (job.image != null) {
+                                job.image.closeOriginalTiles();
+                            }
+                            job.image = null;
+                        }
+
+                        job.totalMillis = (System.nanoTime() - job.startTime) / 1e6;
+                        jobsInFlight.release();
+                    });
+
+            futures.add(future.exceptionally(error -> job));
+        }
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+
+        readPool.shutdown();
+        resamplePool.shutdown();
+        writePool.shutdown();
+
+        double elapsedMillis = (System.nanoTime() - startTime) / 1e6;
+        double summedMillis = 0;
+        for (Job job : jobs) {
+            summedMillis += job.totalMillis;
+        }
+
+        System.out.println();
+        System.out.printf("Batch Wall Time: %.1f ms%n", elapsedMillis);
+        System.out.printf("Sum Of Job Times: %.1f ms%n", summedMillis);
+
+        writeTimings(jobs);
+
+        ImageDisplay.metrics.report();
+    }
+
+    /**
+     * A CSV field, quoted when it holds a comma, quote, space or line break so
+     * paths and flags stay in one column.
+     */
+    static String csvField(String value) {
+        if (value.chars().noneMatch(c -> c == ',' || c == '"' || c == ' ' || c == '\n' || c == '\r')) {
+            return value;
+        }
+
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private void writeTimings(List<Job> jobs) {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Path.of(timingsPath)))) {
+            out.println("job,image,scale,antialiasing,window,flags,read_ms,resample_ms,write_ms,total_ms,output,status");
+
+            for (Job job : jobs) {
+                String flags = String.join(" ", Arrays.copyOfRange(job.args, 4, Math.max(4, job.args.length)));
+
+                out.printf("%d,%s,%s,%s,%s,%s,%.1f,%.1f,%.1f,%.1f,%s,%s%n", job.index, csvField(job.args[0]),
+                        csvField(job.args[1]), csvField(job.args[2]), csvField(job.args[3]), csvField(flags),
+                        job.readMillis, job.resampleMillis, job.writeMillis, job.totalMillis,
+                        csvField(job.outputPath), csvField(job.status));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        System.out.println("Timings Written To: " + timingsPath);
+    }
+}
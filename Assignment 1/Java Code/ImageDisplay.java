@@ -6,6 +6,13 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.image.*;
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import javax.swing.*;
 
 public class ImageDisplay {
@@ -21,10 +28,18 @@ public class ImageDisplay {
     int windowSize;
     int scaledWidth;
     int scaledHeight;
-    int aliasingGridSize = 9;
+
+    // number of threads used to resample, 1 resamples on the calling thread
+    int parallelism = 1;
+
+    // tiles at or below this many pixels on each side are resampled directly
+    static final int RESAMPLE_TILE_SIZE = 64;
 
     String imagePath;
 
+    // when set the image is downscaled row by row into this planar file and never displayed
+    String streamOutputPath;
+
     double scaleFactor;
 
     BufferedImage originalImage;
@@ -32,17 +47,66 @@ public class ImageDisplay {
     BufferedImage overlayImage;
     BufferedImage combinedImage;
 
+    // backing array of originalImage, packed as 0xffRRGGBB
+    int[] originalPixels;
+
+    // image the scaled image is resampled from, the original or a mipmap level
+    String sourcePath;
+    int sourceWidth;
+    int sourceHeight;
+    int[] sourcePixels;
+    double sourceScale;
+
+    // separable filter to resample with, null keeps nearest neighbour or box antialiasing
+    SeparableResampler.Filter resampleFilter;
+
+    // resample from the nearest mipmap level cached next to the image
+    boolean useMipmap = false;
+
+    // tiles of the original decoded on demand, read by the magnifier when the original is not decoded
+    TileCache originalTiles;
+
+    // number of tiles originalTiles holds, setting it skips decoding the original
+    int tileCacheSize = 0;
+    static final int DEFAULT_TILE_CACHE_SIZE = 64;
+
+    // show a strided preview straight away and swap in the exact image when it is ready
+    boolean isProgressive = false;
+    boolean isPreviewShown = false;
+
+    // the preview samples one source pixel per block of this many scaled pixels on each side
+    static final int PREVIEW_STRIDE = 4;
+
+    // per channel integral image of the source, only built when antialiasing
+    SummedAreaTable summedAreaTable;
+
+    // backing arrays of the images the magnifier copies between
+    int[] scaledPixels;
+    int[] combinedPixels;
+    int[] overlayPixels;
+
+    // region of the combined image the overlay currently covers
+    int overlayX, overlayY, overlayWidth, overlayHeight;
+
+    // latest mouse position waiting to be rendered
+    int pendingRow, pendingCol;
+    boolean isRenderPending = false;
+
     boolean isControlDown = false;
 
-    private boolean validateArgs(String[] args) {
+    // stage timings of every image this run, shared by the jobs of a batch
+    static final StageMetrics metrics = new StageMetrics("Assignment 1");
+
+    boolean validateArgs(String[] args) {
         // Number of arguments is 4
         // 1. Image Path
         // 2. Scale Factor
         // 3. Antialiasing
         // 4. Window Size
+        // Followed by optional --name=value flags
 
-        if (args.length != 4) {
-            System.out.println("Invalid arguements, Please enter in the format 'java class image_file S A w'");
+        if (args.length < 4) {
+            System.out.println("Invalid arguements, Please enter in the format 'java class image_file S A w [--flags]'");
             return false;
         }
 
@@ -64,6 +128,18 @@ public class ImageDisplay {
 
         windowSize = Integer.parseInt(args[3]);
 
+        for (int i = 4; i < args.length; i++) {
+            if (!parseOption(args[i])) {
+                return false;
+            }
+        }
+
+        // Filters resample from decoded pixels, only a mipmap level keeps the original undecoded for them
+        if (tileCacheSize > 0 && resampleFilter != null && !useMipmap) {
+            System.out.println("Invalid tile cache, Please use --tile-cache with --mipmap=1 or without --filter");
+            return false;
+        }
+
         scaledWidth = (int) (originalWidth * scaleFactor);
         scaledHeight = (int) (originalHeight * scaleFactor);
 
@@ -75,45 +151,173 @@ public class ImageDisplay {
         System.out.println("Original Image Height: " + originalHeight);
         System.out.println("Resampled Image Width: " + scaledWidth);
         System.out.println("Resampled Image Height: " + scaledHeight);
+        System.out.println("Threads: " + parallelism);
+        System.out.println("Filter: " + (resampleFilter == null ? "default" : resampleFilter));
+        System.out.println("Mipmap: " + (useMipmap ? 1 : 0));
+        System.out.println("Tile Cache: " + tileCacheSize);
+        System.out.println("Kernels: " + PixelKernels.active.getName());
+        System.out.println("Progressive: " + (isProgressive ? 1 : 0));
 
         return true;
     }
 
+    private boolean parseOption(String arg) {
+        int separator = arg.indexOf('=');
+
+        if (!arg.startsWith("--") || separator == -1) {
+            System.out.println("Invalid flag " + arg + ", Please enter flags in the format '--name=value'");
+            return false;
+        }
+
+        String name = arg.substring(2, separator);
+        String value = arg.substring(separator + 1);
+
+        switch (name) {
+            case "width":
+                originalWidth = Integer.parseInt(value);
+                return true;
+            case "height":
+                originalHeight = Integer.parseInt(value);
+                return true;
+            case "stream":
+                streamOutputPath = value;
+                return true;
+            case "filter":
+                try {
+                    resampleFilter = SeparableResampler.Filter.valueOf(value.toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Invalid filter, Please enter one of area, bilinear, bicubic or lanczos3");
+                    return false;
+                }
+                return true;
+            case "progressive":
+                isProgressive = Integer.parseInt(value) == 1;
+                return true;
+            case "mipmap":
+                useMipmap = Integer.parseInt(value) == 1;
+                return true;
+            case "tile-cache":
+                tileCacheSize = Integer.parseInt(value);
+                // Tile cache should hold at least one tile
+                if (tileCacheSize < 1) {
+                    System.out.println("Invalid tile cache, Please enter a value of at least 1");
+                    return false;
+                }
+                return true;
+            case "simd":
+                PixelKernels.select(value);
+                return true;
+            case "threads":
+                parallelism = Integer.parseInt(value);
+                // Threads should be at least 1
+                if (parallelism < 1) {
+                    System.out.println("Invalid threads, Please enter a value of at least 1");
+                    return false;
+                }
+                return true;
+            case "metrics":
+                metrics.jsonPath = value;
+                return true;
+            default:
+                System.out.println("Unknown flag " + arg);
+                return false;
+        }
+    }
+
     /**
-     * Read Image RGB Reads the image of given width and height at the given
-     * imgPath into the provided BufferedImage.
+     * Read Image RGB Maps the planar image at imagePath and copies it row by row
+     * straight into the int[] backing originalImage.
      */
-    private void readImageRGB() {
-        try {
-            int frameLength = originalWidth * originalHeight * 3;
+    void readImageRGB() {
+        long startTime = System.nanoTime();
+
+        try (StageMetrics.Stage stage = metrics.start("readImageRGB");
+                PlanarImageFile planarImage = new PlanarImageFile(imagePath, originalWidth, originalHeight)) {
+            originalPixels = ((DataBufferInt) originalImage.getRaster().getDataBuffer()).getData();
 
-            File file = new File(imagePath);
-            RandomAccessFile raf = new RandomAccessFile(file, "r");
-            raf.seek(0);
+            planarImage.readRows(0, originalHeight, originalPixels, 0);
+            stage.addPixels((long) originalWidth * originalHeight);
 
-            byte[] bytes = new byte[frameLength];
-            raf.read(bytes);
+            sourcePath = imagePath;
+            sourceWidth = originalWidth;
+            sourceHeight = originalHeight;
+            sourcePixels = originalPixels;
+            sourceScale = scaleFactor;
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
 
-            int index = 0;
-            for (int row = 0; row < originalHeight; row++) {
-                for (int col = 0; col < originalWidth; col++) {
-                    byte red = bytes[index];
-                    byte green = bytes[index + originalHeight * originalWidth];
-                    byte blue = bytes[index + originalHeight * originalWidth * 2];
+        double elapsedMillis = (System.nanoTime() - startTime) / 1e6;
+        double megabytes = originalWidth * (double) originalHeight * 3 / (1024 * 1024);
 
-                    int pixel = 0xff000000 | ((red & 0xff) << 16) | ((green & 0xff) << 8) | (blue & 0xff);
+        System.out.printf("Load Time: %.1f ms (%.1f MB/s)%n", elapsedMillis, megabytes / (elapsedMillis / 1000));
+    }
 
-                    originalImage.setRGB(col, row, pixel);
-                    index++;
-                }
+    /**
+     * Load Mipmap Level Reads the smallest cached mipmap level that is still at
+     * least as large as the scaled image, building the cache on first use. The
+     * original stays mapped on disk for the magnifier instead of being decoded.
+     * Nearest neighbour samples the original itself, since the levels are
+     * already box filtered.
+     */
+    private void loadMipmapLevel() {
+        long startTime = System.nanoTime();
+
+        try (StageMetrics.Stage stage = metrics.start("loadMipmapLevel")) {
+            MipmapCache mipmapCache = new MipmapCache(imagePath, originalWidth, originalHeight);
+            int level = antiAliasing == 1 || resampleFilter != null ? mipmapCache.levelFor(scaleFactor) : 0;
+
+            sourcePath = mipmapCache.levelPath(level);
+            sourceWidth = mipmapCache.levelWidth(level);
+            sourceHeight = mipmapCache.levelHeight(level);
+            sourceScale = scaleFactor * (1 << level);
+
+            int[] levelPixels = new int[sourceWidth * sourceHeight];
+            try (PlanarImageFile levelImage = new PlanarImageFile(sourcePath, sourceWidth, sourceHeight)) {
+                levelImage.readRows(0, sourceHeight, levelPixels, 0);
             }
+            sourcePixels = levelPixels;
+            stage.addPixels(levelPixels.length);
 
-            raf.close();
-        } catch (FileNotFoundException e) {
+            openOriginalTiles();
+
+            System.out.println("Mipmap Level: " + level + " (" + sourceWidth + " x " + sourceHeight + ")");
+        } catch (IOException e) {
             e.printStackTrace();
+        }
+
+        System.out.printf("Mipmap Load Time: %.1f ms%n", (System.nanoTime() - startTime) / 1e6);
+    }
+
+    /**
+     * Maps the original without decoding it. Full resolution pixels are decoded a
+     * tile at a time when the magnifier first needs them.
+     */
+    private void openOriginalTiles() throws IOException {
+        int capacity = tileCacheSize > 0 ? tileCacheSize : DEFAULT_TILE_CACHE_SIZE;
+
+        originalTiles = new TileCache(new PlanarImageFile(imagePath, originalWidth, originalHeight), capacity);
+
+        System.out.println("Original Tiles: " + capacity + " x " + TileCache.TILE_SIZE + " x " + TileCache.TILE_SIZE);
+    }
+
+    /**
+     * Unmaps the original opened by openOriginalTiles, once nothing will read
+     * it again.
+     */
+    void closeOriginalTiles() {
+        if (originalTiles == null) {
+            return;
+        }
+
+        try {
+            originalTiles.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
+        originalTiles = null;
     }
 
     private int getOriginalPixel(int row, int col) {
@@ -121,92 +325,371 @@ public class ImageDisplay {
             return Color.BLACK.getRGB();
         }
 
-        return originalImage.getRGB(col, row);
+        if (originalPixels == null) {
+            return originalTiles.getPixel(row, col);
+        }
+
+        return originalPixels[row * originalWidth + col];
     }
 
+    /**
+     * Builds the summed area table used for antialiasing straight from the planar
+     * file, so every output pixel can be averaged in constant time.
+     */
+    void buildSummedAreaTable() {
+        long startTime = System.nanoTime();
+
+        try (StageMetrics.Stage stage = metrics.start("buildSummedAreaTable");
+                PlanarImageFile planarImage = new PlanarImageFile(sourcePath, sourceWidth, sourceHeight)) {
+            summedAreaTable = new SummedAreaTable(planarImage);
+            stage.addPixels((long) sourceWidth * sourceHeight);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        System.out.printf("Summed Area Table Time: %.1f ms%n", (System.nanoTime() - startTime) / 1e6);
+    }
+
+    /**
+     * Averages the block of source pixels covered by the scaled pixel at (row,
+     * col). The block spans 1 / scale source pixels in each direction, so the
+     * filter grows and shrinks with the scale.
+     */
     private int getAveragePixelValue(int row, int col) {
-        int redAverage = 0;
-        int greenAverage = 0;
-        int blueAverage = 0;
-        int size = aliasingGridSize * aliasingGridSize;
-
-        for (int i = 0, x = -(aliasingGridSize / 2); i < aliasingGridSize; i++, x++) {
-            for (int j = 0, y = -(aliasingGridSize / 2); j < aliasingGridSize; j++, y++) {
-                int originalPixel = getOriginalPixel(row + x, col + y);
-
-                int red = originalPixel >> 16 & 0xFF;
-                int green = originalPixel >> 8 & 0xFF;
-                int blue = originalPixel & 0xFF;
-
-                redAverage += red;
-                greenAverage += green;
-                blueAverage += blue;
+        int top = (int) (row / sourceScale);
+        int left = (int) (col / sourceScale);
+
+        // Always cover at least one source pixel and never run past the edge
+        int bottom = Math.max(top + 1, Math.min(sourceHeight, (int) ((row + 1) / sourceScale)));
+        int right = Math.max(left + 1, Math.min(sourceWidth, (int) ((col + 1) / sourceScale)));
+
+        return summedAreaTable.boxAverage(top, left, bottom, right);
+    }
+
+    /**
+     * Resamples the scaled pixels in rows [top, bottom) and columns [left, right)
+     * straight into the int[] backing scaledImage.
+     */
+    private void resampleTile(int[] scaledPixels, int top, int left, int bottom, int right) {
+        for (int row = top; row < bottom; row++) {
+            int index = row * scaledWidth + left;
+
+            for (int col = left; col < right; col++) {
+                if (antiAliasing == 1) {
+                    scaledPixels[index++] = getAveragePixelValue(row, col);
+                } else {
+                    int rowX = (int) (row / sourceScale);
+                    int colY = (int) (col / sourceScale);
+
+                    scaledPixels[index++] = sourcePixels[rowX * sourceWidth + colY];
+                }
             }
         }
+    }
+
+    /**
+     * Splits a block of the scaled image in half along its longer side until it
+     * is small enough to resample as a single tile.
+     */
+    private class ResampleTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final int[] scaledPixels;
+        final int top, left, bottom, right;
+
+        ResampleTask(int[] scaledPixels, int top, int left, int bottom, int right) {
+            this.scaledPixels = scaledPixels;
+            this.top = top;
+            this.left = left;
+            this.bottom = bottom;
+            this.right = right;
+        }
+
+        @Override
+        protected void compute() {
+            int height = bottom - top;
+            int width = right - left;
 
-        // Averaging rgb values
-        redAverage /= size;
-        greenAverage /= size;
-        blueAverage /= size;
+            if (height <= RESAMPLE_TILE_SIZE && width <= RESAMPLE_TILE_SIZE) {
+                resampleTile(scaledPixels, top, left, bottom, right);
+                return;
+            }
 
-        // Recreating pixel with the averaged values
-        int pixel = 0xff000000 | ((redAverage & 0xff) << 16) | ((greenAverage & 0xff) << 8) | (blueAverage & 0xff);
-        return pixel;
+            if (height >= width) {
+                int middle = top + height / 2;
+                invokeAll(new ResampleTask(scaledPixels, top, left, middle, right),
+                        new ResampleTask(scaledPixels, middle, left, bottom, right));
+            } else {
+                int middle = left + width / 2;
+                invokeAll(new ResampleTask(scaledPixels, top, left, bottom, middle),
+                        new ResampleTask(scaledPixels, top, middle, bottom, right));
+            }
+        }
     }
 
-    private void resampleImage() {
+    void resampleImage() {
         // If scale is one no need to scale down and no need for antialiasing
         if (scaleFactor == 1) {
             scaledImage = originalImage;
+            scaledPixels = originalPixels;
             return;
         }
 
-        if (antiAliasing == 1) {
-            for (int row = 0; row < scaledHeight; row++) {
-                for (int col = 0; col < scaledWidth; col++) {
+        long startTime = System.nanoTime();
+
+        try (StageMetrics.Stage stage = metrics.start("resampleImage")) {
+            scaledPixels = ((DataBufferInt) scaledImage.getRaster().getDataBuffer()).getData();
+
+            ForkJoinPool pool = parallelism == 1 ? null : new ForkJoinPool(parallelism);
+
+            if (sourcePixels == null) {
+                // Nothing decoded, stream the scaled rows straight from the mapped original
+                try {
+                    new StreamingDownscaler(originalTiles.source, scaleFactor, antiAliasing == 1)
+                            .downscale((row, pixels) -> System.arraycopy(pixels, 0, scaledPixels,
+                                    row * scaledWidth, scaledWidth));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            } else if (resampleFilter != null) {
+                SeparableResampler resampler = new SeparableResampler(resampleFilter, sourceWidth, sourceHeight,
+                        scaledWidth, scaledHeight, sourceScale);
+                resampler.resample(sourcePixels, scaledPixels, pool);
+            } else if (pool == null) {
+                resampleTile(scaledPixels, 0, 0, scaledHeight, scaledWidth);
+            } else {
+                pool.invoke(new ResampleTask(scaledPixels, 0, 0, scaledHeight, scaledWidth));
+            }
+
+            if (pool != null) {
+                pool.shutdown();
+            }
+
+            stage.addPixels(scaledPixels.length);
+        }
+
+        System.out.printf("Resample Time: %.1f ms%n", (System.nanoTime() - startTime) / 1e6);
+    }
+
+    /**
+     * Render Preview Fills scaledImage with a coarse nearest neighbour preview,
+     * sampling one pixel of the mapped original per PREVIEW_STRIDE x
+     * PREVIEW_STRIDE block. Only a few thousand pixels are touched, so it is
+     * ready long before the original could be decoded. Returns false when the
+     * original could not be read, after printing why.
+     */
+    private boolean renderPreview() {
+        boolean isRendered = true;
+        long startTime = System.nanoTime();
+
+        try (StageMetrics.Stage stage = metrics.start("renderPreview")) {
+            scaledImage = new BufferedImage(scaledWidth, scaledHeight, BufferedImage.TYPE_INT_RGB);
+            int[] previewPixels = ((DataBufferInt) scaledImage.getRaster().getDataBuffer()).getData();
+
+            try (PlanarImageFile planarImage = new PlanarImageFile(imagePath, originalWidth, originalHeight)) {
+                for (int row = 0; row < scaledHeight; row += PREVIEW_STRIDE) {
                     int rowX = (int) (row / scaleFactor);
-                    int colY = (int) (col / scaleFactor);
+                    int rowStart = row * scaledWidth;
+
+                    for (int col = 0; col < scaledWidth; col += PREVIEW_STRIDE) {
+                        int colY = (int) (col / scaleFactor);
+                        int blockEnd = Math.min(scaledWidth, col + PREVIEW_STRIDE);
+
+                        Arrays.fill(previewPixels, rowStart + col, rowStart + blockEnd,
+                                planarImage.getPixel(rowX, colY));
+                    }
 
-                    int pixel = getAveragePixelValue(rowX, colY);
-                    scaledImage.setRGB(col, row, pixel);
+                    // Repeat the sampled row down the rest of the block
+                    for (int y = row + 1; y < Math.min(scaledHeight, row + PREVIEW_STRIDE); y++) {
+                        System.arraycopy(previewPixels, rowStart, previewPixels, y * scaledWidth, scaledWidth);
+                    }
                 }
+            } catch (IOException e) {
+                e.printStackTrace();
+                isRendered = false;
             }
-            return;
+
+            stage.addPixels(previewPixels.length);
         }
 
-        for (int row = 0; row < scaledHeight; row++) {
-            for (int col = 0; col < scaledWidth; col++) {
-                int rowX = (int) (row / scaleFactor);
-                int colY = (int) (col / scaleFactor);
+        System.out.printf("Preview Time: %.1f ms%n", (System.nanoTime() - startTime) / 1e6);
+        return isRendered;
+    }
+
+    /**
+     * Reads and resamples the exact image on a background thread, then copies it
+     * over the preview on the event dispatch thread and turns the magnifier on.
+     */
+    private void startExactResample() {
+        long startTime = System.nanoTime();
+
+        new SwingWorker<Boolean, Void>() {
+            @Override
+            protected Boolean doInBackground() {
+                if (!loadImage()) {
+                    return false;
+                }
 
-                scaledImage.setRGB(col, row, originalImage.getRGB(colY, rowX));
+                resampleImage();
+                return true;
             }
+
+            @Override
+            protected void done() {
+                try {
+                    if (!get()) {
+                        exitUnreadable();
+                    }
+                } catch (ExecutionException e) {
+                    // Fail the same way an exception out of the synchronous path does
+                    e.getCause().printStackTrace();
+                    System.exit(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+
+                System.arraycopy(scaledPixels, 0, combinedPixels, 0, scaledPixels.length);
+                isPreviewShown = false;
+                label.repaint();
+
+                System.out.printf("Exact Image Time: %.1f ms%n", (System.nanoTime() - startTime) / 1e6);
+                metrics.report();
+            }
+        }.execute();
+    }
+
+    /**
+     * Stream Image Downscales the planar image at imagePath into a planar file at
+     * streamOutputPath one row at a time, without holding either full image in
+     * memory.
+     */
+    public void streamImage() {
+        long startTime = System.nanoTime();
+
+        try (StageMetrics.Stage stage = metrics.start("streamImage");
+                PlanarImageFile planarImage = new PlanarImageFile(imagePath, originalWidth, originalHeight);
+                FileChannel output = FileChannel.open(Path.of(streamOutputPath), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            new StreamingDownscaler(planarImage, scaleFactor, antiAliasing == 1).downscale(output);
+            stage.addPixels((long) originalWidth * originalHeight);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
+
+        System.out.printf("Stream Time: %.1f ms%n", (System.nanoTime() - startTime) / 1e6);
+        System.out.println("Resampled Image Written To: " + streamOutputPath);
+    }
+
+    /**
+     * Copies the scaled image back over a region of the combined image, covering
+     * up whatever part of the magnifier was drawn there.
+     */
+    private void restoreScaledRegion(int x, int y, int width, int height) {
+        for (int row = y; row < y + height; row++) {
+            int index = row * scaledWidth + x;
+            System.arraycopy(scaledPixels, index, combinedPixels, index, width);
+        }
+    }
+
+    private void repaintScaledRegion(int x, int y, int width, int height) {
+        // The label centres the image inside itself
+        int iconX = label.getWidth() / 2 - scaledWidth / 2;
+        int iconY = label.getHeight() / 2 - scaledHeight / 2;
+
+        label.repaint(iconX + x, iconY + y, width, height);
     }
 
     private void resetImage() {
-        // redraw scaled image without overlay
-        Graphics g = combinedImage.getGraphics();
-        g.drawImage(scaledImage, 0, 0, null);
-        g.dispose();
+        // redraw only the part of the scaled image the overlay covered
+        restoreScaledRegion(overlayX, overlayY, overlayWidth, overlayHeight);
+        repaintScaledRegion(overlayX, overlayY, overlayWidth, overlayHeight);
 
-        label.repaint();
+        overlayWidth = 0;
+        overlayHeight = 0;
     }
 
-    private void buildOverlayImage(int x, int y) {
+    /**
+     * Copies length original pixels of row starting at col into dest, filling
+     * anything outside the original image with black.
+     */
+    private void copyOriginalRow(int row, int col, int[] dest, int offset, int length) {
+        int black = Color.BLACK.getRGB();
+        int start = Math.max(0, col);
+        int end = Math.min(originalWidth, col + length);
+
+        if (row < 0 || row >= originalHeight || end <= start) {
+            Arrays.fill(dest, offset, offset + length, black);
+            return;
+        }
+
+        Arrays.fill(dest, offset, offset + start - col, black);
+        Arrays.fill(dest, offset + end - col, offset + length, black);
+
+        if (originalPixels != null) {
+            System.arraycopy(originalPixels, row * originalWidth + start, dest, offset + start - col, end - start);
+        } else {
+            originalTiles.copyRow(row, start, end, dest, offset + start - col);
+        }
+    }
+
+    void buildOverlayImage(int x, int y) {
         int originalRow = (int) (x / scaleFactor);
         int originalCol = (int) (y / scaleFactor);
 
+        int firstCol = originalCol - windowSize / 2;
+
         for (int row = 0, i = -(windowSize / 2); row < windowSize; row++, i++) {
-            for (int col = 0, j = -(windowSize / 2); col < windowSize; col++, j++) {
-                int rowX = originalRow + i;
-                int colY = originalCol + j;
+            copyOriginalRow(originalRow + i, firstCol, overlayPixels, row * windowSize, windowSize);
+        }
+    }
+
+    /**
+     * Draws the magnifier at the most recent mouse position. Only the region the
+     * previous overlay covered is restored, and only the union of the old and new
+     * overlay is repainted.
+     */
+    private void renderOverlay() {
+        isRenderPending = false;
 
-                int pixel = getOriginalPixel(rowX, colY);
+        // The preview has no original behind it to magnify yet
+        if (!isControlDown || isPreviewShown) {
+            return;
+        }
 
-                overlayImage.setRGB(col, row, pixel);
-            }
+        buildOverlayImage(pendingRow, pendingCol);
+
+        int frameRow = pendingRow - (windowSize / 2);
+        int frameCol = pendingCol - (windowSize / 2);
+
+        // Clip the overlay to the scaled image
+        int top = Math.max(0, frameRow);
+        int left = Math.max(0, frameCol);
+        int bottom = Math.min(scaledHeight, frameRow + windowSize);
+        int right = Math.min(scaledWidth, frameCol + windowSize);
+
+        restoreScaledRegion(overlayX, overlayY, overlayWidth, overlayHeight);
+
+        for (int row = top; row < bottom; row++) {
+            System.arraycopy(overlayPixels, (row - frameRow) * windowSize + (left - frameCol), combinedPixels,
+                    row * scaledWidth + left, Math.max(0, right - left));
+        }
+
+        if (overlayWidth > 0 && overlayHeight > 0) {
+            int unionTop = Math.min(top, overlayY);
+            int unionLeft = Math.min(left, overlayX);
+            int unionBottom = Math.max(bottom, overlayY + overlayHeight);
+            int unionRight = Math.max(right, overlayX + overlayWidth);
+
+            repaintScaledRegion(unionLeft, unionTop, unionRight - unionLeft, unionBottom - unionTop);
+        } else {
+            repaintScaledRegion(left, top, right - left, bottom - top);
         }
+
+        overlayX = left;
+        overlayY = top;
+        overlayWidth = Math.max(0, right - left);
+        overlayHeight = Math.max(0, bottom - top);
     }
 
     private void addFrameMouseListener() {
@@ -247,17 +730,14 @@ public class ImageDisplay {
                     int col = mousePoint.x;
 
                     if (row >= 0 && col >= 0 && row <= scaledHeight && col <= scaledWidth) {
-                        buildOverlayImage(row, col);
-
-                        int frameRow = row - (windowSize / 2);
-                        int frameCol = col - (windowSize / 2);
-
-                        Graphics g = combinedImage.getGraphics();
-                        g.drawImage(scaledImage, 0, 0, null);
-                        g.drawImage(overlayImage, frameCol, frameRow, null);
-                        g.dispose();
-
-                        label.repaint();
+                        pendingRow = row;
+                        pendingCol = col;
+
+                        // Coalesce a burst of moves into a single render once the queue drains
+                        if (!isRenderPending) {
+                            isRenderPending = true;
+                            SwingUtilities.invokeLater(() -> renderOverlay());
+                        }
                     }
                 }
             }
@@ -274,7 +754,6 @@ public class ImageDisplay {
             public void keyPressed(KeyEvent e) {
                 if (e.isControlDown()) {
                     isControlDown = true;
-                    overlayImage = new BufferedImage(windowSize, windowSize, BufferedImage.TYPE_INT_RGB);
                 }
             }
 
@@ -289,13 +768,70 @@ public class ImageDisplay {
         });
     }
 
-    public void showImage() {
-        // Read in the specified image
-        originalImage = new BufferedImage(originalWidth, originalHeight, BufferedImage.TYPE_INT_RGB);
-        readImageRGB();
+    /**
+     * Load Image Reads everything resampleImage needs and allocates the scaled
+     * image, without touching the display. Returns false when the image could
+     * not be read, after printing why.
+     */
+    boolean loadImage() {
+        // Read in the specified image, or only the mipmap level the scaled image needs
+        if (useMipmap && scaleFactor != 1) {
+            loadMipmapLevel();
+        } else if (tileCacheSize > 0 && scaleFactor != 1 && resampleFilter == null) {
+            // resampleImage streams from the mapped original and the magnifier reads tiles
+            try {
+                openOriginalTiles();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } else {
+            originalImage = new BufferedImage(originalWidth, originalHeight, BufferedImage.TYPE_INT_RGB);
+            readImageRGB();
+        }
+
+        // Nothing to resample if the read failed
+        if (!isLoaded()) {
+            return false;
+        }
+
+        if (antiAliasing == 1 && scaleFactor != 1 && resampleFilter == null && sourcePixels != null) {
+            buildSummedAreaTable();
+        }
 
         scaledImage = new BufferedImage(scaledWidth, scaledHeight, BufferedImage.TYPE_INT_RGB);
-        resampleImage();
+        return true;
+    }
+
+    boolean isLoaded() {
+        return sourcePixels != null || originalTiles != null;
+    }
+
+    /**
+     * Nothing to show when the image could not be read, exits with status 1.
+     */
+    private void exitUnreadable() {
+        System.out.println("Invalid image, Please enter a planar .rgb file of "
+                + originalWidth + " x " + originalHeight + " pixels");
+        System.exit(1);
+    }
+
+    public void showImage() {
+        long startTime = System.nanoTime();
+
+        // Progressive mode opens the window on a preview and resamples in the background
+        isPreviewShown = isProgressive && scaleFactor != 1;
+
+        if (isPreviewShown) {
+            if (!renderPreview()) {
+                exitUnreadable();
+            }
+        } else {
+            if (!loadImage()) {
+                exitUnreadable();
+            }
+
+            resampleImage();
+        }
 
         // Use label to display the image
         frame = new JFrame();
@@ -317,6 +853,11 @@ public class ImageDisplay {
 
         // Creating a combined image to draw the scaled image and the overlay together
         combinedImage = new BufferedImage(scaledWidth, scaledHeight, BufferedImage.TYPE_INT_RGB);
+        combinedPixels = ((DataBufferInt) combinedImage.getRaster().getDataBuffer()).getData();
+
+        // The overlay is reused for every mouse move
+        overlayImage = new BufferedImage(windowSize, windowSize, BufferedImage.TYPE_INT_RGB);
+        overlayPixels = ((DataBufferInt) overlayImage.getRaster().getDataBuffer()).getData();
 
         // Drawing only the scaled image right now
         Graphics g = combinedImage.getGraphics();
@@ -330,9 +871,29 @@ public class ImageDisplay {
         frame.add(label);
         frame.pack();
         frame.setVisible(true);
+
+        System.out.printf("First Pixel Time: %.1f ms%n", (System.nanoTime() - startTime) / 1e6);
+
+        if (isPreviewShown) {
+            startExactResample();
+        } else {
+            metrics.report();
+        }
     }
 
     public static void main(String[] args) {
+        // Batch mode runs a whole commands file headless
+        if (args.length > 0 && args[0].startsWith("--batch=")) {
+            BatchRunner batchRunner = new BatchRunner();
+
+            if (!batchRunner.validateArgs(args)) {
+                System.exit(1);
+            }
+
+            batchRunner.run();
+            return;
+        }
+
         ImageDisplay renderImage = new ImageDisplay();
 
         // Validate Arguments
@@ -343,6 +904,12 @@ public class ImageDisplay {
             System.exit(1);
         }
 
+        if (renderImage.streamOutputPath != null) {
+            renderImage.streamImage();
+            metrics.report();
+            return;
+        }
+
         renderImage.showImage();
     }
 }
@@ -0,0 +1,275 @@
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Image Display Benchmark
+ * Times the read, resample and magnifier paths of ImageDisplay on a synthetic
+ * 4xHD frame, so it runs without the sample images. Every case is warmed up
+ * before it is measured and reported as the mean and standard deviation per
+ * operation, so runs before and after a change can be compared.
+ *
+ * Usage: java ImageDisplayBenchmark [--warmup=N] [--iterations=N] [--csv=file]
+ * Any other --name=value flag is passed on to ImageDisplay, for example
+ * --threads=8, --filter=area or --simd=1.
+ */
+public class ImageDisplayBenchmark {
+    static final double[] SCALES = { 0.09375, 0.111, 0.125, 0.133 };
+    static final int[] ANTIALIASING = { 0, 1 };
+    static final int[] WINDOW_SIZES = { 100, 200, 400 };
+
+    int warmupIterations = 3;
+    int measurementIterations = 5;
+    String csvPath;
+    List<String> imageDisplayFlags = new ArrayList<String>();
+
+    String framePath;
+    ImageDisplay loadedImage;
+    List<String> results = new ArrayList<String>();
+
+    interface Operation {
+        void run() throws Exception;
+    }
+
+    private boolean validateArgs(String[] args) {
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+
+            if (!arg.startsWith("--") || separator == -1) {
+                System.out.println("Invalid flag " + arg + ", Please enter flags in the format '--name=value'");
+                return false;
+            }
+
+            String name = arg.substring(2, separator);
+            String value = arg.substring(separator + 1);
+
+            switch (name) {
+                case "warmup":
+                    warmupIterations = Integer.parseInt(value);
+                    break;
+                case "iterations":
+                    measurementIterations = Integer.parseInt(value);
+                    break;
+                case "csv":
+                    csvPath = value;
+                    break;
+                default:
+                    imageDisplayFlags.add(arg);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes a deterministic 7680x4320 planar frame mixing smooth gradients with
+     * fine stripes, so both the nearest neighbour and antialiased paths have
+     * something to alias.
+     */
+    private void writeSyntheticFrame(int width, int height) throws IOException {
+        Path path = Files.createTempFile("synthetic-4xhd", ".rgb");
+        path.toFile().deleteOnExit();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            ByteBuffer row = ByteBuffer.allocate(width);
+
+            for (int plane = 0; plane < 3; plane++) {
+                for (int y = 0; y < height; y++) {
+                    row.clear();
+
+                    for (int x = 0; x < width; x++) {
+                        int gradient = (x * (plane + 1) + y * (3 - plane)) >> 5;
+                        int stripes = ((x + y * plane) / 3) % 2 == 0 ? 0 : 96;
+
+                        row.put((byte) (gradient + stripes));
+                    }
+
+                    row.flip();
+                    channel.write(row);
+                }
+            }
+        }
+
+        framePath = path.toString();
+    }
+
+    private ImageDisplay createImageDisplay(double scale, int antiAliasing, int windowSize) {
+        List<String> args = new ArrayList<String>(List.of(framePath, String.valueOf(scale),
+                String.valueOf(antiAliasing), String.valueOf(windowSize)));
+        args.addAll(imageDisplayFlags);
+
+        ImageDisplay imageDisplay = new ImageDisplay();
+        PrintStream console = System.out;
+
+        // Keep the argument echo out of the table
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            if (!imageDisplay.validateArgs(args.toArray(new String[0]))) {
+                throw new IllegalArgumentException("Invalid ImageDisplay flags " + imageDisplayFlags);
+            }
+        } finally {
+            System.setOut(console);
+        }
+
+        return imageDisplay;
+    }
+
+    /**
+     * Shares the frame read once up front, so resample cases only pay for
+     * resampling.
+     */
+    private void shareOriginal(ImageDisplay imageDisplay) {
+        imageDisplay.originalImage = loadedImage.originalImage;
+        imageDisplay.originalPixels = loadedImage.originalPixels;
+        imageDisplay.sourcePath = loadedImage.sourcePath;
+        imageDisplay.sourceWidth = loadedImage.sourceWidth;
+        imageDisplay.sourceHeight = loadedImage.sourceHeight;
+        imageDisplay.sourcePixels = loadedImage.sourcePixels;
+        imageDisplay.sourceScale = imageDisplay.scaleFactor;
+        imageDisplay.summedAreaTable = loadedImage.summedAreaTable;
+    }
+
+    private void measure(String name, String params, Operation operation) throws Exception {
+        PrintStream console = System.out;
+        double[] millis = new double[measurementIterations];
+
+        // ImageDisplay reports its own timings, keep them out of the table
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (int i = 0; i < warmupIterations; i++) {
+                operation.run();
+            }
+
+            for (int i = 0; i < measurementIterations; i++) {
+                long startTime = System.nanoTime();
+                operation.run();
+                millis[i] = (System.nanoTime() - startTime) / 1e6;
+            }
+        } finally {
+            System.setOut(console);
+        }
+
+        double mean = 0;
+        for (double value : millis) {
+            mean += value;
+        }
+        mean /= millis.length;
+
+        double variance = 0;
+        for (double value : millis) {
+            variance += (value - mean) * (value - mean);
+        }
+        double deviation = Math.sqrt(variance / Math.max(1, millis.length - 1));
+
+        System.out.printf("%-26s %-36s %10.2f ms/op +- %8.2f%n", name, params, mean, deviation);
+        results.add(String.format("%s,%s,%.3f,%.3f,%d", BatchRunner.csvField(name), BatchRunner.csvField(params), mean,
+                deviation, millis.length));
+    }
+
+    void run() throws Exception {
+        int width = 7680;
+        int height = 4320;
+
+        System.out.println("Warmup Iterations: " + warmupIterations);
+        System.out.println("Measurement Iterations: " + measurementIterations);
+        System.out.println("ImageDisplay Flags: " + imageDisplayFlags);
+        System.out.println();
+
+        writeSyntheticFrame(width, height);
+
+        loadedImage = createImageDisplay(1, 1, WINDOW_SIZES[0]);
+        loadedImage.originalImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+        measure("readImageRGB", "4xHD " + PixelKernels.active.getName(), () -> loadedImage.readImageRGB());
+        measure("buildSummedAreaTable", "4xHD", () -> loadedImage.buildSummedAreaTable());
+
+        for (int antiAliasing : ANTIALIASING) {
+            for (double scale : SCALES) {
+                ImageDisplay imageDisplay = createImageDisplay(scale, antiAliasing, WINDOW_SIZES[0]);
+                shareOriginal(imageDisplay);
+                imageDisplay.scaledImage = new BufferedImage(imageDisplay.scaledWidth, imageDisplay.scaledHeight,
+                        BufferedImage.TYPE_INT_RGB);
+
+                String kernel = antiAliasing == 1 ? "average" : "nearest";
+                if (imageDisplay.resampleFilter != null) {
+                    kernel = imageDisplay.resampleFilter.toString().toLowerCase();
+                }
+
+                String name = "resampleImage (" + kernel + ")";
+                measure(name, "scale=" + scale + " antialiasing=" + antiAliasing, () -> imageDisplay.resampleImage());
+            }
+        }
+
+        // Streaming downscale off the mapped file, the path the pixel kernels speed up most
+        try (PlanarImageFile frame = new PlanarImageFile(framePath, width, height)) {
+            String name = "downscale (" + PixelKernels.active.getName() + ")";
+
+            for (double scale : SCALES) {
+                StreamingDownscaler downscaler = new StreamingDownscaler(frame, scale, true);
+                measure(name, "scale=" + scale + " antialiasing=1", () -> downscaler.downscale((row, pixels) -> {
+                }));
+            }
+        }
+
+        for (int windowSize : WINDOW_SIZES) {
+            for (double scale : SCALES) {
+                ImageDisplay imageDisplay = createImageDisplay(scale, 0, windowSize);
+                shareOriginal(imageDisplay);
+                imageDisplay.overlayPixels = new int[windowSize * windowSize];
+
+                int row = imageDisplay.scaledHeight / 2;
+                int col = imageDisplay.scaledWidth / 2;
+
+                measure("buildOverlayImage", "scale=" + scale + " window=" + windowSize,
+                        () -> imageDisplay.buildOverlayImage(row, col));
+            }
+        }
+
+        // Same overlays read through the tile cache instead of the decoded original
+        for (int windowSize : WINDOW_SIZES) {
+            ImageDisplay imageDisplay = createImageDisplay(SCALES[0], 0, windowSize);
+            imageDisplay.originalTiles = new TileCache(new PlanarImageFile(framePath, width, height),
+                    ImageDisplay.DEFAULT_TILE_CACHE_SIZE);
+            imageDisplay.overlayPixels = new int[windowSize * windowSize];
+
+            int row = imageDisplay.scaledHeight / 2;
+            int col = imageDisplay.scaledWidth / 2;
+
+            // Unmap the original before the next case so it does not measure a pile of mappings
+            try {
+                measure("buildOverlayImage (tiled)", "scale=" + SCALES[0] + " window=" + windowSize,
+                        () -> imageDisplay.buildOverlayImage(row, col));
+            } finally {
+                imageDisplay.closeOriginalTiles();
+            }
+        }
+
+        if (csvPath != null) {
+            try (PrintWriter out = new PrintWriter(new FileWriter(csvPath))) {
+                out.println("benchmark,params,mean_ms,stddev_ms,iterations");
+                for (String result : results) {
+                    out.println(result);
+                }
+            }
+
+            System.out.println();
+            System.out.println("Results Written To: " + csvPath);
+        }
+
+        // Stage totals include the warmup iterations
+        ImageDisplay.metrics.report();
+    }
+
+    public static void main(String[] args) throws Exception {
+        ImageDisplayBenchmark benchmark = new ImageDisplayBenchmark();
+
+        if (!benchmark.validateArgs(args)) {
+            System.exit(1);
+        }
+
+        benchmark.run();
+    }
+}
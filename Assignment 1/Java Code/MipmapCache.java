@@ -0,0 +1,203 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * Mipmap Cache
+ * Keeps a pyramid of box filtered levels of a planar image on disk next to the
+ * source, in a .mipmap directory. Level k is the source halved k times, so a
+ * resample at scale S can start from the smallest level that is still at
+ * least as large as the result.
+ *
+ * Levels are stored under the SHA-256 of the source contents and the frame
+ * size it is read at. A small key file per source remembers the size,
+ * modification time and hash seen last time, so the source only has to be
+ * hashed again when it has changed.
+ *
+ * Several jobs may build the same levels at once. Each writes its own
+ * temporary files and publishes them with an atomic move, so a reader only
+ * ever sees complete levels and whichever build finishes last wins.
+ */
+class MipmapCache {
+    // stop halving once a side would drop below this
+    static final int MIN_LEVEL_SIZE = 16;
+
+    final Path sourcePath;
+    final int width;
+    final int height;
+    final int levelCount;
+
+    private final Path cacheDirectory;
+    private final Path keyPath;
+    private Path levelDirectory;
+
+    MipmapCache(String sourcePath, int width, int height) {
+        this.sourcePath = Path.of(sourcePath).toAbsolutePath();
+        this.width = width;
+        this.height = height;
+
+        int levels = 0;
+        while ((width >> (levels + 1)) >= MIN_LEVEL_SIZE && (height >> (levels + 1)) >= MIN_LEVEL_SIZE) {
+            levels++;
+        }
+        levelCount = levels;
+
+        cacheDirectory = this.sourcePath.getParent().resolve(".mipmap");
+        keyPath = cacheDirectory.resolve(this.sourcePath.getFileName() + ".key");
+    }
+
+    /**
+     * The coarsest level that still has at least scaleFactor of the source
+     * resolution, 0 being the source itself.
+     */
+    int levelFor(double scaleFactor) {
+        int level = 0;
+        while (level < levelCount && 1.0 / (1 << (level + 1)) >= scaleFactor) {
+            level++;
+        }
+        return level;
+    }
+
+    int levelWidth(int level) {
+        return width >> level;
+    }
+
+    int levelHeight(int level) {
+        return height >> level;
+    }
+
+    /**
+     * Path of the planar file holding a level, building the pyramid first if the
+     * source is new or has changed since it was last built.
+     */
+    String levelPath(int level) throws IOException {
+        if (level == 0) {
+            return sourcePath.toString();
+        }
+
+        if (levelDirectory == null) {
+            levelDirectory = validate();
+        }
+
+        return levelDirectory.resolve("level-" + level + ".rgb").toString();
+    }
+
+    private Path validate() throws IOException {
+        long size = Files.size(sourcePath);
+        long modified = Files.getLastModifiedTime(sourcePath).toMillis();
+
+        Properties key = new Properties();
+        if (Files.exists(keyPath)) {
+            try (InputStream in = Files.newInputStream(keyPath)) {
+                key.load(in);
+            }
+        }
+
+        String hash = key.getProperty("hash");
+        boolean unchanged = hash != null
+                && String.valueOf(size).equals(key.getProperty("size"))
+                && String.valueOf(modified).equals(key.getProperty("modified"));
+
+        if (!unchanged) {
+            hash = hashSource();
+
+            key.setProperty("size", String.valueOf(size));
+            key.setProperty("modified", String.valueOf(modified));
+            key.setProperty("hash", hash);
+
+            Files.createDirectories(cacheDirectory);
+            Path partialPath = Files.createTempFile(cacheDirectory, sourcePath.getFileName().toString(), ".partial");
+
+            try (OutputStream out = Files.newOutputStream(partialPath)) {
+                key.store(out, "Mipmap key for " + sourcePath.getFileName());
+            }
+            publish(partialPath, keyPath);
+        }
+
+        // Levels read at another --width/--height are a different pyramid
+        Path directory = cacheDirectory.resolve(hash + "-" + width + "x" + height);
+
+        if (!Files.exists(directory.resolve("level-" + levelCount + ".rgb"))) {
+            System.out.println("Building Mipmap Levels: " + levelCount);
+            build(directory);
+        } else {
+            System.out.println("Mipmap Cache Hit: " + hash);
+        }
+
+        return directory;
+    }
+
+    private String hashSource() throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        try (FileChannel channel = FileChannel.open(sourcePath, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Halves each level into the next with a 2x2 box filter, streaming rows so
+     * only a couple of source rows are in memory at once. Averages are rounded,
+     * since truncating them would darken every level a little more than the one
+     * it was built from.
+     */
+    private void build(Path directory) throws IOException {
+        Files.createDirectories(directory);
+
+        String previousPath = sourcePath.toString();
+
+        for (int level = 1; level <= levelCount; level++) {
+            Path levelPath = directory.resolve("level-" + level + ".rgb");
+            Path partialPath = Files.createTempFile(directory, "level-" + level, ".partial");
+
+            try (PlanarImageFile previous = new PlanarImageFile(previousPath, levelWidth(level - 1),
+                    levelHeight(level - 1));
+                    FileChannel output = FileChannel.open(partialPath, StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                StreamingDownscaler downscaler = new StreamingDownscaler(previous, 0.5, true);
+                downscaler.isRounding = true;
+                downscaler.downscale(output);
+            }
+
+            // only publish complete levels
+            publish(partialPath, levelPath);
+            previousPath = levelPath.toString();
+        }
+    }
+
+    /**
+     * Moves a finished temporary file into place. A file another build has just
+     * published there holds the same contents, so it is kept if the move fails.
+     */
+    private static void publish(Path partialPath, Path path) throws IOException {
+        try {
+            Files.move(partialPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (!Files.exists(path)) {
+                throw e;
+            }
+            Files.deleteIfExists(partialPath);
+        }
+    }
+}
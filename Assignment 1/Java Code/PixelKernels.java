@@ -0,0 +1,78 @@
+/**
+ * Pixel Kernels
+ * The per pixel inner loops shared by the readers and the streaming
+ * downscaler: interleaving the three byte planes into packed ints and the
+ * vertical and horizontal box sums. This class is the scalar version.
+ *
+ * VectorKernels overrides them with the incubating Vector API. It is loaded by
+ * name so the rest of the program builds and runs without the incubator
+ * module. To use it compile it separately and pass --simd=1:
+ *
+ * javac --add-modules jdk.incubator.vector VectorKernels.java
+ * java --add-modules jdk.incubator.vector ImageDisplay image_file S A w --simd=1
+ */
+class PixelKernels {
+    // kernels every caller goes through, picked once per process before any image is read
+    static PixelKernels active = new PixelKernels();
+
+    /**
+     * Switches active to the vector kernels, leaving the scalar ones in place
+     * if they were not compiled or the incubator module is missing.
+     */
+    static boolean useVector() {
+        try {
+            active = (PixelKernels) Class.forName("VectorKernels").getDeclaredConstructor().newInstance();
+            return true;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Applies a --simd flag value, printing why when the vector kernels were
+     * asked for but could not be loaded.
+     */
+    static void select(String simd) {
+        // Falls back to the scalar kernels when the vector ones cannot be loaded
+        if (Integer.parseInt(simd) == 1 && !useVector()) {
+            System.out.println("Vector kernels unavailable, compile VectorKernels.java and run with "
+                    + "--add-modules jdk.incubator.vector");
+        }
+    }
+
+    String getName() {
+        return "scalar";
+    }
+
+    /**
+     * Packs length red, green and blue bytes into 0xffRRGGBB ints written to
+     * pixels starting at offset.
+     */
+    void interleave(byte[] reds, byte[] greens, byte[] blues, int[] pixels, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            pixels[offset + i] = 0xff000000 | ((reds[i] & 0xff) << 16) | ((greens[i] & 0xff) << 8)
+                    | (blues[i] & 0xff);
+        }
+    }
+
+    /**
+     * Adds the first length unsigned bytes of row onto sums, summing a band of
+     * rows down each column.
+     */
+    void addRow(byte[] row, int[] sums, int length) {
+        for (int i = 0; i < length; i++) {
+            sums[i] += row[i] & 0xff;
+        }
+    }
+
+    /**
+     * Sum of sums[from, to), summing the columns under one scaled pixel.
+     */
+    int sumRange(int[] sums, int from, int to) {
+        int total = 0;
+        for (int i = from; i < to; i++) {
+            total += sums[i];
+        }
+        return total;
+    }
+}
@@ -0,0 +1,107 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Planar Image File
+ * Memory maps a planar .rgb file (all red bytes, then all green bytes, then all
+ * blue bytes) so rows can be copied straight into a packed int raster without
+ * going through BufferedImage.setRGB.
+ */
+class PlanarImageFile implements Closeable {
+    final int width;
+    final int height;
+    final int planeLength;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    PlanarImageFile(String path, int width, int height) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.planeLength = width * height;
+
+        long frameLength = (long) planeLength * 3;
+
+        channel = FileChannel.open(Path.of(path), StandardOpenOption.READ);
+
+        long fileLength = channel.size();
+
+        if (fileLength < frameLength) {
+            channel.close();
+            throw new IOException("Expected " + frameLength + " bytes in " + path + " but found " + fileLength);
+        }
+
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, frameLength);
+    }
+
+    /**
+     * Copies one row of a single plane (0 = red, 1 = green, 2 = blue) into dest.
+     */
+    void readPlaneRow(int plane, int row, byte[] dest) {
+        readPlaneSegment(plane, row, 0, width, dest);
+    }
+
+    /**
+     * Copies length bytes of one row of a plane, starting at col, into dest.
+     */
+    void readPlaneSegment(int plane, int row, int col, int length, byte[] dest) {
+        buffer.get(plane * planeLength + row * width + col, dest, 0, length);
+    }
+
+    /**
+     * Interleaves rowCount rows starting at firstRow into packed 0xffRRGGBB ints,
+     * writing them to pixels starting at offset.
+     */
+    void readRows(int firstRow, int rowCount, int[] pixels, int offset) {
+        byte[] reds = new byte[width];
+        byte[] greens = new byte[width];
+        byte[] blues = new byte[width];
+
+        for (int row = firstRow; row < firstRow + rowCount; row++) {
+            readPlaneRow(0, row, reds);
+            readPlaneRow(1, row, greens);
+            readPlaneRow(2, row, blues);
+
+            PixelKernels.active.interleave(reds, greens, blues, pixels, offset, width);
+            offset += width;
+        }
+    }
+
+    int getPixel(int row, int col) {
+        int index = row * width + col;
+
+        int red = buffer.get(index) & 0xff;
+        int green = buffer.get(index + planeLength) & 0xff;
+        int blue = buffer.get(index + planeLength * 2) & 0xff;
+
+        return 0xff000000 | (red << 16) | (green << 8) | blue;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Writes packed 0xffRRGGBB pixels out as a planar .rgb file.
+     */
+    static void write(String path, int[] pixels, int width, int height) throws IOException {
+        int planeLength = width * height;
+        byte[] bytes = new byte[planeLength * 3];
+
+        for (int index = 0; index < planeLength; index++) {
+            int pixel = pixels[index];
+
+            bytes[index] = (byte) (pixel >> 16);
+            bytes[index + planeLength] = (byte) (pixel >> 8);
+            bytes[index + planeLength * 2] = (byte) pixel;
+        }
+
+        try (OutputStream out = new FileOutputStream(path)) {
+            out.write(bytes);
+        }
+    }
+}
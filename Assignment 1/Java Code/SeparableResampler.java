@@ -0,0 +1,217 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Separable Resampler
+ * Resamples with a separable filter in two passes, first along each row and
+ * then down each column. The source pixels and weights for every scaled column
+ * and every scaled row are worked out once up front, so each pass is a plain
+ * weighted sum over a short run of pixels.
+ *
+ * When scaling down the filter is stretched by 1 / scale so it always covers
+ * the whole footprint of a scaled pixel.
+ */
+class SeparableResampler {
+
+    enum Filter {
+        AREA(0.5),
+        BILINEAR(1),
+        BICUBIC(2),
+        LANCZOS3(3);
+
+        // half width of the filter in scaled pixels
+        final double support;
+
+        Filter(double support) {
+            this.support = support;
+        }
+
+        double weight(double x) {
+            x = Math.abs(x);
+
+            switch (this) {
+                case BILINEAR:
+                    return x < 1 ? 1 - x : 0;
+                case BICUBIC:
+                    // Keys cubic with a = -0.5
+                    if (x < 1) {
+                        return (1.5 * x - 2.5) * x * x + 1;
+                    }
+                    return x < 2 ? ((-0.5 * x + 2.5) * x - 4) * x + 2 : 0;
+                case LANCZOS3:
+                    if (x == 0) {
+                        return 1;
+                    }
+                    return x < 3 ? 3 * Math.sin(Math.PI * x) * Math.sin(Math.PI * x / 3) / (Math.PI * Math.PI * x * x)
+                            : 0;
+                default:
+                    return x < 0.5 ? 1 : 0;
+            }
+        }
+    }
+
+    /**
+     * Source indices and weights for every scaled index along one axis. Scaled
+     * index i reads sourceCounts[i] pixels starting at sourceStarts[i], weighted
+     * by weights[i * taps + k].
+     */
+    static class WeightTable {
+        final int taps;
+        final int[] sourceStarts;
+        final int[] sourceCounts;
+        final float[] weights;
+
+        WeightTable(Filter filter, int sourceSize, int scaledSize, double scale) {
+            double filterScale = Math.max(1, 1 / scale);
+            double support = filter.support * filterScale;
+
+            taps = (int) Math.ceil(support) * 2 + 1;
+            sourceStarts = new int[scaledSize];
+            sourceCounts = new int[scaledSize];
+            weights = new float[scaledSize * taps];
+
+            double[] row = new double[taps];
+
+            for (int i = 0; i < scaledSize; i++) {
+                double center = (i + 0.5) / scale;
+                int start = Math.max(0, (int) Math.floor(center - support));
+                int end = Math.min(sourceSize, (int) Math.ceil(center + support));
+                int count = Math.min(taps, end - start);
+
+                double total = 0;
+                for (int k = 0; k < count; k++) {
+                    int j = start + k;
+
+                    if (filter == Filter.AREA) {
+                        // exact overlap of source pixel [j, j + 1) with the footprint
+                        double left = Math.max(j, i / scale);
+                        double right = Math.min(j + 1, (i + 1) / scale);
+                        row[k] = Math.max(0, right - left);
+                    } else {
+                        row[k] = filter.weight((j + 0.5 - center) / filterScale);
+                    }
+
+                    total += row[k];
+                }
+
+                // Fall back to the nearest pixel if every weight vanished
+                if (total == 0) {
+                    start = Math.min(sourceSize - 1, (int) center);
+                    count = 1;
+                    row[0] = total = 1;
+                }
+
+                sourceStarts[i] = start;
+                sourceCounts[i] = count;
+                for (int k = 0; k < count; k++) {
+                    weights[i * taps + k] = (float) (row[k] / total);
+                }
+            }
+        }
+    }
+
+    final Filter filter;
+    final int sourceWidth;
+    final int sourceHeight;
+    final int scaledWidth;
+    final int scaledHeight;
+
+    private final WeightTable columns;
+    private final WeightTable rows;
+
+    SeparableResampler(Filter filter, int sourceWidth, int sourceHeight, int scaledWidth, int scaledHeight,
+            double scale) {
+        this.filter = filter;
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.scaledWidth = scaledWidth;
+        this.scaledHeight = scaledHeight;
+
+        columns = new WeightTable(filter, sourceWidth, scaledWidth, scale);
+        rows = new WeightTable(filter, sourceHeight, scaledHeight, scale);
+    }
+
+    /**
+     * Resamples packed 0xffRRGGBB source pixels into scaledPixels, spreading both
+     * passes across pool when one is given.
+     */
+    void resample(int[] sourcePixels, int[] scaledPixels, ForkJoinPool pool) {
+        // Only source rows some scaled row reads need the horizontal pass
+        int firstRow = rows.sourceStarts[0];
+        int lastRow = rows.sourceStarts[scaledHeight - 1] + rows.sourceCounts[scaledHeight - 1];
+
+        // Horizontal pass output, one float per channel per scaled column
+        float[] horizontal = new float[(lastRow - firstRow) * scaledWidth * 3];
+
+        run(pool, firstRow, lastRow, row -> horizontalPass(sourcePixels, horizontal, row, firstRow));
+        run(pool, 0, scaledHeight, row -> verticalPass(horizontal, scaledPixels, row, firstRow));
+    }
+
+    private void run(ForkJoinPool pool, int from, int to, IntConsumer pass) {
+        if (pool == null) {
+            IntStream.range(from, to).forEach(pass);
+        } else {
+            pool.submit(() -> IntStream.range(from, to).parallel().forEach(pass)).join();
+        }
+    }
+
+    private void horizontalPass(int[] sourcePixels, float[] horizontal, int row, int firstRow) {
+        int sourceOffset = row * sourceWidth;
+        int out = (row - firstRow) * scaledWidth * 3;
+
+        for (int col = 0; col < scaledWidth; col++) {
+            int start = sourceOffset + columns.sourceStarts[col];
+            int count = columns.sourceCounts[col];
+            int weightOffset = col * columns.taps;
+
+            float red = 0;
+            float green = 0;
+            float blue = 0;
+
+            for (int k = 0; k < count; k++) {
+                int pixel = sourcePixels[start + k];
+                float weight = columns.weights[weightOffset + k];
+
+                red += weight * (pixel >> 16 & 0xff);
+                green += weight * (pixel >> 8 & 0xff);
+                blue += weight * (pixel & 0xff);
+            }
+
+            horizontal[out++] = red;
+            horizontal[out++] = green;
+            horizontal[out++] = blue;
+        }
+    }
+
+    private void verticalPass(float[] horizontal, int[] scaledPixels, int row, int firstRow) {
+        int start = rows.sourceStarts[row] - firstRow;
+        int count = rows.sourceCounts[row];
+        int weightOffset = row * rows.taps;
+        int stride = scaledWidth * 3;
+        int out = row * scaledWidth;
+
+        for (int col = 0; col < scaledWidth; col++) {
+            int in = start * stride + col * 3;
+
+            float red = 0;
+            float green = 0;
+            float blue = 0;
+
+            for (int k = 0; k < count; k++, in += stride) {
+                float weight = rows.weights[weightOffset + k];
+
+                red += weight * horizontal[in];
+                green += weight * horizontal[in + 1];
+                blue += weight * horizontal[in + 2];
+            }
+
+            scaledPixels[out++] = 0xff000000 | (clamp(red) << 16) | (clamp(green) << 8) | clamp(blue);
+        }
+    }
+
+    // Bicubic and Lanczos can overshoot, so round and clamp back into a byte
+    private static int clamp(float value) {
+        return Math.max(0, Math.min(255, Math.round(value)));
+    }
+}
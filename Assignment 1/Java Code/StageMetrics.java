@@ -0,0 +1,206 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.*;
+import java.util.*;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Stage Metrics
+ * Wall time, pixels handled and bytes allocated for every named stage of a
+ * run, totalled over all the times the stage ran. A stage is measured by
+ * wrapping it in
+ *
+ * try (StageMetrics.Stage stage = metrics.start("readImageRGB")) { ... }
+ *
+ * Allocations come from the ThreadMXBean for the calling thread, so work a
+ * stage hands to other threads is counted by their own stages, and a stage
+ * nested in another is counted in both. Each stage is also committed as a
+ * cs576.Stage JFR event whenever a flight recording is running.
+ *
+ * report() prints the totals as a table and writes them as JSON to jsonPath
+ * when one is set. Every assignment keeps its own copy of this class, since
+ * each one builds on its own.
+ */
+class StageMetrics {
+
+    @Name("cs576.Stage")
+    @Label("Image Stage")
+    @Category("CSCI 576")
+    @Description("One run of a named stage of an image program")
+    static class StageEvent extends Event {
+        @Label("Program")
+        String program;
+
+        @Label("Stage")
+        String stage;
+
+        @Label("Pixels")
+        long pixels;
+
+        @Label("Allocated")
+        @DataAmount
+        long allocatedBytes;
+    }
+
+    /**
+     * One running stage, recorded when it is closed.
+     */
+    class Stage implements AutoCloseable {
+        final String name;
+        final long startTime;
+        final long startAllocatedBytes;
+        final StageEvent event = new StageEvent();
+
+        long pixels;
+
+        Stage(String name) {
+            this.name = name;
+            this.startAllocatedBytes = getAllocatedBytes();
+
+            event.begin();
+            this.startTime = System.nanoTime();
+        }
+
+        void addPixels(long count) {
+            pixels += count;
+        }
+
+        @Override
+        public void close() {
+            long nanos = System.nanoTime() - startTime;
+            long allocatedBytes = startAllocatedBytes < 0 ? -1 : getAllocatedBytes() - startAllocatedBytes;
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.program = program;
+                event.stage = name;
+                event.pixels = pixels;
+                event.allocatedBytes = allocatedBytes;
+                event.commit();
+            }
+
+            record(name, nanos, pixels, allocatedBytes);
+        }
+    }
+
+    private static class Totals {
+        int calls;
+        long nanos;
+        long maxNanos;
+        long pixels;
+
+        // -1 once any run could not be measured
+        long allocatedBytes;
+    }
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    final String program;
+
+    // when set report() also writes the totals here as JSON
+    String jsonPath;
+
+    // in the order the stages first ran
+    private final Map<String, Totals> totals = new LinkedHashMap<String, Totals>();
+
+    StageMetrics(String program) {
+        this.program = program;
+    }
+
+    /**
+     * Bytes the calling thread has allocated so far, or -1 when the JVM cannot
+     * tell.
+     */
+    private static long getAllocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getCurrentThreadAllocatedBytes();
+            }
+        }
+
+        return -1;
+    }
+
+    Stage start(String name) {
+        return new Stage(name);
+    }
+
+    private synchronized void record(String name, long nanos, long pixels, long allocatedBytes) {
+        Totals stage = totals.get(name);
+
+        if (stage == null) {
+            stage = new Totals();
+            totals.put(name, stage);
+        }
+
+        stage.calls++;
+        stage.nanos += nanos;
+        stage.maxNanos = Math.max(stage.maxNanos, nanos);
+        stage.pixels += pixels;
+        stage.allocatedBytes = allocatedBytes < 0 || stage.allocatedBytes < 0 ? -1 : stage.allocatedBytes + allocatedBytes;
+    }
+
+    synchronized void printSummary() {
+        System.out.println();
+        System.out.printf("%-30s %6s %10s %10s %10s %10s %10s%n", "Stage", "Calls", "Total ms", "Mean ms", "Max ms",
+                "Mpixels", "Alloc MB");
+
+        for (Map.Entry<String, Totals> entry : totals.entrySet()) {
+            Totals stage = entry.getValue();
+
+            System.out.printf("%-30s %6d %10.1f %10.2f %10.2f %10.2f %10s%n", entry.getKey(), stage.calls,
+                    stage.nanos / 1e6, stage.nanos / 1e6 / stage.calls, stage.maxNanos / 1e6, stage.pixels / 1e6,
+                    stage.allocatedBytes < 0 ? "n/a" : String.format("%.2f", stage.allocatedBytes / (1024.0 * 1024)));
+        }
+    }
+
+    synchronized void writeJson(String path) throws IOException {
+        StringBuilder json = new StringBuilder();
+
+        json.append("{\"program\":\"").append(program).append("\",\"stages\":[");
+
+        int index = 0;
+        for (Map.Entry<String, Totals> entry : totals.entrySet()) {
+            Totals stage = entry.getValue();
+
+            json.append(index++ == 0 ? "{" : ",{")
+                    .append("\"name\":\"").append(entry.getKey()).append('"')
+                    .append(",\"calls\":").append(stage.calls)
+                    .append(",\"totalMs\":").append(stage.nanos / 1e6)
+                    .append(",\"maxMs\":").append(stage.maxNanos / 1e6)
+                    .append(",\"pixels\":").append(stage.pixels)
+                    .append(",\"allocatedBytes\":").append(stage.allocatedBytes)
+                    .append('}');
+        }
+
+        json.append("]}");
+
+        Files.writeString(Path.of(path), json + System.lineSeparator());
+    }
+
+    /**
+     * Prints the summary table, and writes the JSON file when jsonPath is set.
+     */
+    void report() {
+        printSummary();
+
+        if (jsonPath == null) {
+            return;
+        }
+
+        try {
+            writeJson(jsonPath);
+            System.out.println("Metrics Written To: " + jsonPath);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Streaming Downscaler
+ * Downscales a planar image one scaled row at a time. Only the source rows
+ * under the current scaled row are read, and they are folded into per column
+ * sums as they arrive, so memory depends on the image width and never on its
+ * height.
+ */
+class StreamingDownscaler {
+
+    /**
+     * Receives each scaled row, packed as 0xffRRGGBB, in top to bottom order. The
+     * pixels array is reused for the next row once accept returns.
+     */
+    interface RowConsumer {
+        void accept(int row, int[] pixels) throws IOException;
+    }
+
+    final PlanarImageFile source;
+    final double scaleFactor;
+    final boolean antiAliasing;
+    final int scaledWidth;
+    final int scaledHeight;
+
+    // round averages to the nearest value instead of down, so halving again and again does not darken
+    boolean isRounding = false;
+
+    // source columns [columnStarts[col], columnEnds[col]) under each scaled column
+    private final int[] columnStarts;
+    private final int[] columnEnds;
+
+    StreamingDownscaler(PlanarImageFile source, double scaleFactor, boolean antiAliasing) {
+        this.source = source;
+        this.scaleFactor = scaleFactor;
+        this.antiAliasing = antiAliasing;
+
+        scaledWidth = (int) (source.width * scaleFactor);
+        scaledHeight = (int) (source.height * scaleFactor);
+
+        columnStarts = new int[scaledWidth];
+        columnEnds = new int[scaledWidth];
+
+        for (int col = 0; col < scaledWidth; col++) {
+            columnStarts[col] = (int) (col / scaleFactor);
+            columnEnds[col] = Math.max(columnStarts[col] + 1,
+                    Math.min(source.width, (int) ((col + 1) / scaleFactor)));
+        }
+    }
+
+    void downscale(RowConsumer consumer) throws IOException {
+        int width = source.width;
+        PixelKernels kernels = PixelKernels.active;
+
+        byte[][] rowBytes = new byte[3][width];
+        int[][] columnSums = new int[3][width];
+        int[] scaledRow = new int[scaledWidth];
+
+        for (int row = 0; row < scaledHeight; row++) {
+            int top = (int) (row / scaleFactor);
+
+            if (!antiAliasing) {
+                for (int plane = 0; plane < 3; plane++) {
+                    source.readPlaneRow(plane, top, rowBytes[plane]);
+                }
+
+                for (int col = 0; col < scaledWidth; col++) {
+                    int colY = columnStarts[col];
+
+                    scaledRow[col] = 0xff000000 | ((rowBytes[0][colY] & 0xff) << 16)
+                            | ((rowBytes[1][colY] & 0xff) << 8) | (rowBytes[2][colY] & 0xff);
+                }
+
+                consumer.accept(row, scaledRow);
+                continue;
+            }
+
+            int bottom = Math.max(top + 1, Math.min(source.height, (int) ((row + 1) / scaleFactor)));
+
+            // Sum every source row in the band down each column
+            for (int plane = 0; plane < 3; plane++) {
+                int[] sums = columnSums[plane];
+                byte[] bytes = rowBytes[plane];
+
+                Arrays.fill(sums, 0);
+
+                for (int sourceRow = top; sourceRow < bottom; sourceRow++) {
+                    source.readPlaneRow(plane, sourceRow, bytes);
+                    kernels.addRow(bytes, sums, width);
+                }
+            }
+
+            // Then sum across the columns under each scaled pixel
+            for (int col = 0; col < scaledWidth; col++) {
+                int left = columnStarts[col];
+                int right = columnEnds[col];
+                int area = (bottom - top) * (right - left);
+                int half = isRounding ? area / 2 : 0;
+
+                int red = kernels.sumRange(columnSums[0], left, right) + half;
+                int green = kernels.sumRange(columnSums[1], left, right) + half;
+                int blue = kernels.sumRange(columnSums[2], left, right) + half;
+
+                scaledRow[col] = 0xff000000 | ((red / area) << 16) | ((green / area) << 8) | (blue / area);
+            }
+
+            consumer.accept(row, scaledRow);
+        }
+    }
+
+    /**
+     * Downscales into a planar file, writing each scaled row into the three
+     * planes as soon as it is ready.
+     */
+    void downscale(FileChannel output) throws IOException {
+        long planeLength = (long) scaledWidth * scaledHeight;
+        ByteBuffer rowBuffer = ByteBuffer.allocate(scaledWidth);
+
+        downscale((row, pixels) -> {
+            for (int plane = 0; plane < 3; plane++) {
+                int shift = 16 - plane * 8;
+
+                rowBuffer.clear();
+                for (int col = 0; col < scaledWidth; col++) {
+                    rowBuffer.put((byte) (pixels[col] >> shift));
+                }
+                rowBuffer.flip();
+
+                long position = plane * planeLength + (long) row * scaledWidth;
+                while (rowBuffer.hasRemaining()) {
+                    position += output.write(rowBuffer, position);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Summed Area Table
+ * Per channel integral image of a planar frame. Entry (row, col) holds the sum
+ * of every value above and to the left of it, so the sum over any box costs
+ * four lookups whatever its size.
+ *
+ * Sums are kept in ints and allowed to wrap around. A box sum is the
+ * difference of four entries, which comes out exact modulo 2^32 as long as the
+ * true box sum fits in an int (boxes up to about 8 million pixels).
+ */
+class SummedAreaTable {
+    final int width;
+    final int height;
+
+    private final int stride;
+    private final int[][] channels = new int[3][];
+
+    SummedAreaTable(PlanarImageFile planarImage) {
+        width = planarImage.width;
+        height = planarImage.height;
+        stride = width + 1;
+
+        byte[] rowBytes = new byte[width];
+
+        for (int plane = 0; plane < 3; plane++) {
+            // first row and first column stay zero
+            int[] table = new int[stride * (height + 1)];
+
+            for (int row = 0; row < height; row++) {
+                planarImage.readPlaneRow(plane, row, rowBytes);
+
+                int rowSum = 0;
+                int above = row * stride + 1;
+                int current = above + stride;
+
+                for (int col = 0; col < width; col++) {
+                    rowSum += rowBytes[col] & 0xff;
+                    table[current + col] = table[above + col] + rowSum;
+                }
+            }
+
+            channels[plane] = table;
+        }
+    }
+
+    /**
+     * Sum of a channel over rows [top, bottom) and columns [left, right).
+     */
+    int boxSum(int channel, int top, int left, int bottom, int right) {
+        int[] table = channels[channel];
+
+        return table[bottom * stride + right] - table[top * stride + right]
+                - table[bottom * stride + left] + table[top * stride + left];
+    }
+
+    /**
+     * Average colour over rows [top, bottom) and columns [left, right) packed as
+     * 0xffRRGGBB.
+     */
+    int boxAverage(int top, int left, int bottom, int right) {
+        int area = (bottom - top) * (right - left);
+
+        int red = boxSum(0, top, left, bottom, right) / area;
+        int green = boxSum(1, top, left, bottom, right) / area;
+        int blue = boxSum(2, top, left, bottom, right) / area;
+
+        return 0xff000000 | (red << 16) | (green << 8) | blue;
+    }
+}
@@ -0,0 +1,99 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tile Cache
+ * Serves pixels of a mapped planar image in 256x256 tiles that are decoded the
+ * first time they are touched. Decoded tiles are kept in a least recently used
+ * cache of a fixed number of tiles, so the memory spent on full resolution
+ * pixels is capped however large the image is. Closing the cache unmaps the
+ * image.
+ */
+class TileCache implements Closeable {
+    static final int TILE_SIZE = 256;
+
+    final PlanarImageFile source;
+    final int capacity;
+
+    private final int tileColumns;
+    private final byte[][] segment = new byte[3][TILE_SIZE];
+
+    // tiles keyed by tileRow * tileColumns + tileCol, in access order
+    private final LinkedHashMap<Integer, int[]> tiles;
+
+    TileCache(PlanarImageFile source, int capacity) {
+        this.source = source;
+        this.capacity = capacity;
+
+        tileColumns = (source.width + TILE_SIZE - 1) / TILE_SIZE;
+
+        tiles = new LinkedHashMap<Integer, int[]>(capacity * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, int[]> eldest) {
+                return size() > TileCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Tile holding the pixel at (row, col), rows of TILE_SIZE packed 0xffRRGGBB
+     * pixels. Tiles on the right and bottom edges are only partly filled.
+     */
+    private int[] getTile(int row, int col) {
+        int tileRow = row / TILE_SIZE;
+        int tileCol = col / TILE_SIZE;
+        int key = tileRow * tileColumns + tileCol;
+
+        int[] tile = tiles.get(key);
+        if (tile != null) {
+            return tile;
+        }
+
+        tile = new int[TILE_SIZE * TILE_SIZE];
+
+        int top = tileRow * TILE_SIZE;
+        int left = tileCol * TILE_SIZE;
+        int height = Math.min(TILE_SIZE, source.height - top);
+        int width = Math.min(TILE_SIZE, source.width - left);
+
+        for (int y = 0; y < height; y++) {
+            for (int plane = 0; plane < 3; plane++) {
+                source.readPlaneSegment(plane, top + y, left, width, segment[plane]);
+            }
+
+            PixelKernels.active.interleave(segment[0], segment[1], segment[2], tile, y * TILE_SIZE, width);
+        }
+
+        tiles.put(key, tile);
+        return tile;
+    }
+
+    int getPixel(int row, int col) {
+        return getTile(row, col)[(row % TILE_SIZE) * TILE_SIZE + col % TILE_SIZE];
+    }
+
+    /**
+     * Copies pixels [start, end) of row into dest at offset, one bulk copy per
+     * tile the span crosses.
+     */
+    void copyRow(int row, int start, int end, int[] dest, int offset) {
+        int rowOffset = (row % TILE_SIZE) * TILE_SIZE;
+
+        for (int col = start; col < end;) {
+            int tileEnd = Math.min(end, (col / TILE_SIZE + 1) * TILE_SIZE);
+
+            System.arraycopy(getTile(row, col), rowOffset + col % TILE_SIZE, dest, offset, tileEnd - col);
+
+            offset += tileEnd - col;
+            col = tileEnd;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        tiles.clear();
+        source.close();
+    }
+}
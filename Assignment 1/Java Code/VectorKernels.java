@@ -0,0 +1,74 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector Kernels
+ * PixelKernels written with the incubating Vector API. Eight bytes at a time
+ * are widened into a 256 bit int vector, which maps onto AVX2 and is emulated
+ * elsewhere. Tails shorter than a vector fall back to the scalar loops.
+ */
+class VectorKernels extends PixelKernels {
+    static final VectorSpecies<Integer> INTS = IntVector.SPECIES_256;
+    static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_64;
+
+    @Override
+    String getName() {
+        return "vector";
+    }
+
+    private static IntVector widen(byte[] bytes, int index) {
+        return ((IntVector) ByteVector.fromArray(BYTES, bytes, index).convertShape(VectorOperators.B2I, INTS, 0))
+                .and(0xff);
+    }
+
+    @Override
+    void interleave(byte[] reds, byte[] greens, byte[] blues, int[] pixels, int offset, int length) {
+        int bound = INTS.loopBound(length);
+        int i = 0;
+
+        for (; i < bound; i += INTS.length()) {
+            IntVector red = widen(reds, i).lanewise(VectorOperators.LSHL, 16);
+            IntVector green = widen(greens, i).lanewise(VectorOperators.LSHL, 8);
+            IntVector blue = widen(blues, i);
+
+            red.or(green).or(blue).or(0xff000000).intoArray(pixels, offset + i);
+        }
+
+        for (; i < length; i++) {
+            pixels[offset + i] = 0xff000000 | ((reds[i] & 0xff) << 16) | ((greens[i] & 0xff) << 8)
+                    | (blues[i] & 0xff);
+        }
+    }
+
+    @Override
+    void addRow(byte[] row, int[] sums, int length) {
+        int bound = INTS.loopBound(length);
+        int i = 0;
+
+        for (; i < bound; i += INTS.length()) {
+            IntVector.fromArray(INTS, sums, i).add(widen(row, i)).intoArray(sums, i);
+        }
+
+        for (; i < length; i++) {
+            sums[i] += row[i] & 0xff;
+        }
+    }
+
+    @Override
+    int sumRange(int[] sums, int from, int to) {
+        int total = 0;
+        int i = from;
+
+        for (; i + INTS.length() <= to; i += INTS.length()) {
+            total += IntVector.fromArray(INTS, sums, i).reduceLanes(VectorOperators.ADD);
+        }
+
+        for (; i < to; i++) {
+            total += sums[i];
+        }
+
+        return total;
+    }
+}
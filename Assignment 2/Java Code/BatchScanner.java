@@ -0,0 +1,276 @@
+import java.awt.Rectangle;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Batch Scanner
+ * Scans every scene in a directory for a library of objects without opening a
+ * window. The object histograms are loaded once and shared, and scenes are
+ * scanned concurrently on a fixed pool. Each scene becomes one JSON line in
+ * the results file, in scene name order:
+ *
+ * {"scene":"a.rgb","ms":4.2,"detections":[{"object":"b.rgb","x":10,"y":20,
+ * "width":30,"height":40,"distance":0.31}]}
+ *
+ * x and y are the column and row of the top left corner, so unlike the boxes
+ * inside ImageDisplay they are not transposed.
+ *
+ * Usage: java ImageDisplay --batch=scene_dir object_file_or_dir ...
+ * [--results=file.jsonl] [--threads=N] plus any ImageDisplay flag
+ */
+class BatchScanner {
+  String scenesPath;
+  String resultsPath = "results.jsonl";
+  int threadCount = Runtime.getRuntime().availableProcessors();
+
+  List<String> objectPaths = new ArrayList<String>();
+
+  // flags handed on to every ImageDisplay
+  List<String> imageDisplayFlags = new ArrayList<String>();
+
+  /**
+   * The results line of one scene, and whether scanning it failed.
+   */
+  static class SceneResult {
+    final String line;
+    final boolean isFailed;
+
+    SceneResult(String line, boolean isFailed) {
+      this.line = line;
+      this.isFailed = isFailed;
+    }
+  }
+
+  boolean validateArgs(String[] args) {
+    // 1. --batch=directory of scenes
+    // Followed by object files or directories of them, and optional flags
+
+    for (String arg : args) {
+      if (!arg.startsWith("--")) {
+        Path path = Path.of(arg);
+
+        if (Files.isDirectory(path)) {
+          objectPaths.addAll(listImages(path));
+        } else {
+          objectPaths.add(arg);
+        }
+        continue;
+      }
+
+      int separator = arg.indexOf('=');
+
+      if (separator == -1) {
+        System.out.println("Invalid flag " + arg + ", Please enter flags in the format '--name=value'");
+        return false;
+      }
+
+      String name = arg.substring(2, separator);
+      String value = arg.substring(separator + 1);
+
+      switch (name) {
+        case "batch":
+          scenesPath = value;
+          break;
+        case "results":
+          resultsPath = value;
+          break;
+        case "threads":
+          threadCount = Integer.parseInt(value);
+          // Threads should be at least 1
+          if (threadCount < 1) {
+            System.out.println("Invalid threads, Please enter a value of at least 1");
+            return false;
+          }
+          break;
+        default:
+          imageDisplayFlags.add(arg);
+      }
+    }
+
+    if (!Files.isDirectory(Path.of(scenesPath)) || objectPaths.isEmpty()) {
+      System.out.println("Need a directory of scenes and an object atleast");
+      return false;
+    }
+
+    System.out.println("Scenes: " + scenesPath);
+    System.out.println("Objects: " + objectPaths.size());
+    System.out.println("Results: " + resultsPath);
+    System.out.println("Threads: " + threadCount);
+    System.out.println();
+
+    return true;
+  }
+
+  private static List<String> listImages(Path directory) {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(file -> file.getFileName().toString().endsWith(".rgb"))
+          .map(Path::toString)
+          .sorted()
+          .collect(Collectors.toList());
+    } catch (IOException e) {
+      e.printStackTrace();
+      return new ArrayList<String>();
+    }
+  }
+
+  /**
+   * ImageDisplay that shares the object histograms of library and scans the
+   * scene at scenePath.
+   */
+  private ImageDisplay forScene(ImageDisplay library, String scenePath) {
+    ImageDisplay scene = new ImageDisplay();
+
+    scene.originalImagePath = scenePath;
+    scene.objectImagePaths = library.objectImagePaths;
+    scene.objectImageHSVBins = library.objectImageHSVBins;
+    scene.objectImageHSVBinsNormalised = library.objectImageHSVBinsNormalised;
+    scene.isSinglePassMatch = library.isSinglePassMatch;
+    scene.isParallel = library.isParallel;
+    scene.pyramidFactor = library.pyramidFactor;
+    scene.nearestObjects = library.nearestObjects;
+    scene.histogramIndex = library.histogramIndex;
+    scene.isWindowEngine = library.isWindowEngine;
+    scene.maxWindowDistance = library.maxWindowDistance;
+    scene.maxWindowBoxes = library.maxWindowBoxes;
+    scene.isQuiet = true;
+
+    return scene;
+  }
+
+  private SceneResult scan(ImageDisplay library, String scenePath) {
+    long startTime = System.nanoTime();
+    StringBuilder line = new StringBuilder();
+
+    line.append("{\"scene\":").append(jsonString(scenePath));
+
+    try {
+      if (!Files.isRegularFile(Path.of(scenePath))) {
+        throw new FileNotFoundException(scenePath);
+      }
+
+      ImageDisplay scene = forScene(library, scenePath);
+
+      try (StageMetrics.Stage stage = ImageDisplay.metrics.start("detectObjects")) {
+        scene.detectObjects();
+        stage.addPixels((long) scene.originalWidth * scene.originalHeight);
+      }
+
+      line.append(String.format(",\"ms\":%.1f,", (System.nanoTime() - startTime) / 1e6));
+      appendDetections(line, scene, scene.detections);
+      line.append('}');
+    } catch (Exception e) {
+      line.append(",\"error\":").append(jsonString(e.toString())).append('}');
+      return new SceneResult(line.toString(), true);
+    }
+
+    return new SceneResult(line.toString(), false);
+  }
+
+  /**
+   * Appends "detections":[...] for the given detections of scene.
+   */
+  static void appendDetections(StringBuilder line, ImageDisplay scene, List<ImageDisplay.Detection> detections) {
+    line.append("\"detections\":[");
+
+    for (int i = 0; i < detections.size(); i++) {
+      ImageDisplay.Detection detection = detections.get(i);
+      Rectangle box = detection.boundingBox;
+
+      line.append(i == 0 ? "{" : ",{")
+          .append("\"object\":").append(jsonString(scene.getFileName(scene.objectImagePaths[detection.objectIndex])))
+          .append(",\"x\":").append(box.y)
+          .append(",\"y\":").append(box.x)
+          .append(",\"width\":").append(box.height)
+          .append(",\"height\":").append(box.width)
+          .append(",\"distance\":").append(detection.distance)
+          .append('}');
+    }
+
+    line.append(']');
+  }
+
+  static String jsonString(String value) {
+    StringBuilder json = new StringBuilder("\"");
+
+    for (char c : value.toCharArray()) {
+      if (c == '"' || c == '\\') {
+        json.append('\\').append(c);
+      } else if (c < 0x20) {
+        json.append(String.format("\\u%04x", (int) c));
+      } else {
+        json.append(c);
+      }
+    }
+
+    return json.append('"').toString();
+  }
+
+  /**
+   * Scans every scene, returning false when a flag is invalid, the results
+   * could not be written or any scene failed.
+   */
+  boolean run() {
+    System.setProperty("java.awt.headless", "true");
+
+    ImageDisplay library = new ImageDisplay();
+    for (String flag : imageDisplayFlags) {
+      if (!library.parseOption(flag)) {
+        return false;
+      }
+    }
+
+    library.setObjectImagePaths(objectPaths.toArray(new String[0]));
+
+    try (StageMetrics.Stage stage = ImageDisplay.metrics.start("loadObjectModels")) {
+      library.loadObjectModels();
+      stage.addPixels((long) objectPaths.size() * library.originalWidth * library.originalHeight);
+    }
+
+    List<String> scenePaths = listImages(Path.of(scenesPath));
+    System.out.println("Scenes Found: " + scenePaths.size());
+
+    long startTime = System.nanoTime();
+
+    ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+    List<Future<SceneResult>> results = new ArrayList<Future<SceneResult>>();
+
+    for (String scenePath : scenePaths) {
+      results.add(pool.submit(() -> scan(library, scenePath)));
+    }
+
+    int failures = 0;
+    boolean isWritten = true;
+
+    try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Path.of(resultsPath)))) {
+      // Written in scene order as each one finishes
+      for (Future<SceneResult> result : results) {
+        SceneResult sceneResult = result.get();
+
+        if (sceneResult.isFailed) {
+          failures++;
+        }
+        out.println(sceneResult.line);
+      }
+    } catch (IOException | InterruptedException | ExecutionException e) {
+      e.printStackTrace();
+      isWritten = false;
+    } finally {
+      pool.shutdownNow();
+    }
+
+    double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+
+    System.out.printf("Batch Wall Time: %.1f ms%n", elapsedSeconds * 1000);
+    System.out.printf("Throughput: %.1f scenes/s%n", scenePaths.size() / elapsedSeconds);
+    System.out.println("Failed Scenes: " + failures);
+    System.out.println("Results Written To: " + resultsPath);
+
+    ImageDisplay.metrics.report();
+
+    return isWritten && failures == 0;
+  }
+}
@@ -0,0 +1,72 @@
+/**
+ * Bit Mask
+ * One bit per pixel, each row packed into its own run of longs so rows can be
+ * scanned a word at a time. A 640x480 mask takes under 40 KB where an int[][]
+ * took over a megabyte.
+ */
+class BitMask {
+  final int width;
+  final int height;
+  final int rowWords;
+  final long[] bits;
+
+  BitMask(int width, int height) {
+    this.width = width;
+    this.height = height;
+    this.rowWords = (width + 63) >>> 6;
+    this.bits = new long[rowWords * height];
+  }
+
+  void set(int row, int col) {
+    bits[row * rowWords + (col >>> 6)] |= 1L << col;
+  }
+
+  boolean get(int row, int col) {
+    return (bits[row * rowWords + (col >>> 6)] & (1L << col)) != 0;
+  }
+
+  /**
+   * Column of the first set bit in row at or after from, or -1 if there is none.
+   */
+  int nextSetBit(int row, int from) {
+    if (from >= width) {
+      return -1;
+    }
+
+    int offset = row * rowWords;
+    int word = from >>> 6;
+    long bitsLeft = bits[offset + word] & (-1L << from);
+
+    while (bitsLeft == 0) {
+      if (++word == rowWords) {
+        return -1;
+      }
+      bitsLeft = bits[offset + word];
+    }
+
+    return (word << 6) + Long.numberOfTrailingZeros(bitsLeft);
+  }
+
+  /**
+   * Column of the first clear bit in row at or after from, or width if the rest
+   * of the row is set.
+   */
+  int nextClearBit(int row, int from) {
+    if (from >= width) {
+      return width;
+    }
+
+    int offset = row * rowWords;
+    int word = from >>> 6;
+    long clearLeft = ~bits[offset + word] & (-1L << from);
+
+    while (clearLeft == 0) {
+      if (++word == rowWords) {
+        return width;
+      }
+      clearLeft = ~bits[offset + word];
+    }
+
+    return Math.min(width, (word << 6) + Long.numberOfTrailingZeros(clearLeft));
+  }
+}
@@ -0,0 +1,202 @@
+import java.awt.Rectangle;
+import java.util.*;
+
+/**
+ * Component Labeller
+ * Finds the 8-connected components of a BitMask in one sweep over its rows.
+ * Each row is split into runs of set bits, and every run is joined in a union
+ * find forest to the runs above it that touch it, diagonals included. Nothing
+ * is allocated per pixel, only a few ints per run.
+ *
+ * Roots are always the lowest numbered run, and runs are numbered in raster
+ * order, so components come back in the order a raster scan first meets them.
+ */
+class ComponentLabeller {
+
+  /**
+   * Bounding box and size of one component. As everywhere else in ImageDisplay
+   * the box is stored transposed: x is the first row, y the first column, width
+   * the number of rows and height the number of columns.
+   */
+  static class Component {
+    final Rectangle bounds;
+    final int pixelCount;
+
+    Component(Rectangle bounds, int pixelCount) {
+      this.bounds = bounds;
+      this.pixelCount = pixelCount;
+    }
+  }
+
+  /**
+   * Components of rows [firstRow, endRow) of a mask, labelled as if the rest
+   * of the mask were clear, along with the runs on the strip's first and last
+   * row and the component each belongs to, so neighbouring strips can be joined.
+   */
+  static class Strip {
+    final int firstRow;
+    final int endRow;
+    final List<Component> components = new ArrayList<Component>();
+
+    int[] topStarts;
+    int[] topEnds;
+    int[] topComponents;
+
+    int[] bottomStarts;
+    int[] bottomEnds;
+    int[] bottomComponents;
+
+    Strip(int firstRow, int endRow) {
+      this.firstRow = firstRow;
+      this.endRow = endRow;
+    }
+  }
+
+  private int runCount;
+  private int[] runRows = new int[256];
+  private int[] runStarts = new int[256];
+  private int[] runEnds = new int[256];
+  private int[] parents = new int[256];
+
+  private int addRun(int row, int start, int end) {
+    if (runCount == parents.length) {
+      int capacity = runCount * 2;
+
+      runRows = Arrays.copyOf(runRows, capacity);
+      runStarts = Arrays.copyOf(runStarts, capacity);
+      runEnds = Arrays.copyOf(runEnds, capacity);
+      parents = Arrays.copyOf(parents, capacity);
+    }
+
+    runRows[runCount] = row;
+    runStarts[runCount] = start;
+    runEnds[runCount] = end;
+    parents[runCount] = runCount;
+
+    return runCount++;
+  }
+
+  private int find(int run) {
+    while (parents[run] != run) {
+      // Path halving
+      parents[run] = parents[parents[run]];
+      run = parents[run];
+    }
+    return run;
+  }
+
+  private void union(int a, int b) {
+    int rootA = find(a);
+    int rootB = find(b);
+
+    // Keep the earlier run as the root so components stay in raster order
+    if (rootA < rootB) {
+      parents[rootB] = rootA;
+    } else if (rootB < rootA) {
+      parents[rootA] = rootB;
+    }
+  }
+
+  List<Component> label(BitMask mask) {
+    return labelStrip(mask, 0, mask.height).components;
+  }
+
+  Strip labelStrip(BitMask mask, int firstRow, int endRow) {
+    runCount = 0;
+
+    int previousFirst = 0;
+    int previousEnd = 0;
+
+    for (int row = firstRow; row < endRow; row++) {
+      int currentFirst = runCount;
+      int above = previousFirst;
+
+      for (int start = mask.nextSetBit(row, 0); start != -1; start = mask.nextSetBit(row, start)) {
+        // Run covers columns [start, end]
+        int end = mask.nextClearBit(row, start) - 1;
+        int run = addRun(row, start, end);
+
+        // Runs above that end left of start - 1 cannot touch this or any later run
+        while (above < previousEnd && runEnds[above] < start - 1) {
+          above++;
+        }
+
+        for (int other = above; other < previousEnd && runStarts[other] <= end + 1; other++) {
+          union(run, other);
+        }
+
+        start = end + 1;
+      }
+
+      previousFirst = currentFirst;
+      previousEnd = runCount;
+    }
+
+    // Gather every run's extent onto its root
+    int[] minRows = new int[runCount];
+    int[] maxRows = new int[runCount];
+    int[] minCols = new int[runCount];
+    int[] maxCols = new int[runCount];
+    int[] pixelCounts = new int[runCount];
+
+    for (int run = 0; run < runCount; run++) {
+      int root = find(run);
+
+      if (root == run) {
+        minRows[root] = runRows[run];
+        maxRows[root] = runRows[run];
+        minCols[root] = runStarts[run];
+        maxCols[root] = runEnds[run];
+      } else {
+        maxRows[root] = Math.max(maxRows[root], runRows[run]);
+        minCols[root] = Math.min(minCols[root], runStarts[run]);
+        maxCols[root] = Math.max(maxCols[root], runEnds[run]);
+      }
+
+      pixelCounts[root] += runEnds[run] - runStarts[run] + 1;
+    }
+
+    Strip strip = new Strip(firstRow, endRow);
+
+    // Index in strip.components of each root
+    int[] componentOfRoot = new int[runCount];
+
+    for (int run = 0; run < runCount; run++) {
+      if (parents[run] == run) {
+        Rectangle bounds = new Rectangle(minRows[run], minCols[run], maxRows[run] - minRows[run] + 1,
+            maxCols[run] - minCols[run] + 1);
+
+        componentOfRoot[run] = strip.components.size();
+        strip.components.add(new Component(bounds, pixelCounts[run]));
+      }
+    }
+
+    int topEnd = 0;
+    while (topEnd < runCount && runRows[topEnd] == firstRow) {
+      topEnd++;
+    }
+
+    int bottomFirst = runCount;
+    while (bottomFirst > 0 && runRows[bottomFirst - 1] == endRow - 1) {
+      bottomFirst--;
+    }
+
+    strip.topStarts = Arrays.copyOfRange(runStarts, 0, topEnd);
+    strip.topEnds = Arrays.copyOfRange(runEnds, 0, topEnd);
+    strip.topComponents = new int[topEnd];
+
+    for (int run = 0; run < topEnd; run++) {
+      strip.topComponents[run] = componentOfRoot[find(run)];
+    }
+
+    strip.bottomStarts = Arrays.copyOfRange(runStarts, bottomFirst, runCount);
+    strip.bottomEnds = Arrays.copyOfRange(runEnds, bottomFirst, runCount);
+    strip.bottomComponents = new int[runCount - bottomFirst];
+
+    for (int run = bottomFirst; run < runCount; run++) {
+      strip.bottomComponents[run - bottomFirst] = componentOfRoot[find(run)];
+    }
+
+    return strip;
+  }
+}
@@ -0,0 +1,158 @@
+import java.util.*;
+
+/**
+ * Histogram Index
+ * A vantage point tree over the normalised hue histograms of an object
+ * library, for finding the objects nearest to a box without measuring the
+ * distance to every one of them.
+ *
+ * Every node picks one object as its vantage point and splits the objects
+ * below it at the median distance from it, the nearer half inside and the
+ * rest outside. A search only enters a side when the triangle inequality
+ * allows something there to be closer than the worst neighbour found so far,
+ * or than maxDistance until k have been found. The tree is kept implicitly in
+ * one array: the node for the range [from, to) holds its vantage point at
+ * from, the inside half at [from + 1, middle) and the outside half at
+ * [middle, to). Searches only read the tree, so the threads of a batch can
+ * share one index.
+ */
+class HistogramIndex {
+
+  /**
+   * An object and its distance from the histogram searched for.
+   */
+  static class Neighbour {
+    final int objectIndex;
+    final double distance;
+
+    Neighbour(int objectIndex, double distance) {
+      this.objectIndex = objectIndex;
+      this.distance = distance;
+    }
+  }
+
+  private static final Comparator<Neighbour> NEAREST_FIRST = Comparator
+      .comparingDouble((Neighbour neighbour) -> neighbour.distance)
+      .thenComparingInt(neighbour -> neighbour.objectIndex);
+
+  private final double[][] histograms;
+
+  // object at each position of the tree, and the split distance of the node starting there
+  private final int[] objects;
+  private final double[] radii;
+
+  HistogramIndex(double[][] histograms) {
+    this.histograms = histograms;
+    this.objects = new int[histograms.length];
+    this.radii = new double[histograms.length];
+
+    for (int i = 0; i < objects.length; i++) {
+      objects[i] = i;
+    }
+
+    build(0, objects.length, new Random(576));
+  }
+
+  static double getDistance(double[] a, double[] b) {
+    double total = 0;
+
+    for (int i = 0; i < a.length; i++) {
+      double difference = a[i] - b[i];
+      total += difference * difference;
+    }
+
+    return Math.sqrt(total);
+  }
+
+  private void build(int from, int to, Random random) {
+    if (to - from <= 1) {
+      return;
+    }
+
+    // A random vantage point keeps the tree balanced whatever order the library is in
+    int vantage = from + random.nextInt(to - from);
+    int swap = objects[from];
+    objects[from] = objects[vantage];
+    objects[vantage] = swap;
+
+    double[] vantageHistogram = histograms[objects[from]];
+    Neighbour[] rest = new Neighbour[to - from - 1];
+
+    for (int i = 0; i < rest.length; i++) {
+      int object = objects[from + 1 + i];
+      rest[i] = new Neighbour(object, getDistance(vantageHistogram, histograms[object]));
+    }
+
+    Arrays.sort(rest, NEAREST_FIRST);
+
+    for (int i = 0; i < rest.length; i++) {
+      objects[from + 1 + i] = rest[i].objectIndex;
+    }
+
+    int middle = from + 1 + rest.length / 2;
+    radii[from] = rest[rest.length / 2].distance;
+
+    build(from + 1, middle, random);
+    build(middle, to, random);
+  }
+
+  /**
+   * Up to k objects within maxDistance of histogram, nearest first.
+   */
+  List<Neighbour> getNearest(double[] histogram, int k, double maxDistance) {
+    // Farthest of the neighbours so far on top
+    PriorityQueue<Neighbour> nearest = new PriorityQueue<Neighbour>(k + 1, NEAREST_FIRST.reversed());
+
+    search(0, objects.length, histogram, k, maxDistance, nearest);
+
+    List<Neighbour> neighbours = new ArrayList<Neighbour>(nearest);
+    neighbours.sort(NEAREST_FIRST);
+
+    return neighbours;
+  }
+
+  private double getSearchRadius(PriorityQueue<Neighbour> nearest, int k, double maxDistance) {
+    return nearest.size() < k ? maxDistance : nearest.peek().distance;
+  }
+
+  private void search(int from, int to, double[] histogram, int k, double maxDistance,
+      PriorityQueue<Neighbour> nearest) {
+    if (from >= to) {
+      return;
+    }
+
+    double distance = getDistance(histogram, histograms[objects[from]]);
+
+    if (distance <= getSearchRadius(nearest, k, maxDistance)) {
+      nearest.add(new Neighbour(objects[from], distance));
+
+      if (nearest.size() > k) {
+        nearest.poll();
+      }
+    }
+
+    if (to - from == 1) {
+      return;
+    }
+
+    int middle = from + 1 + (to - from - 1) / 2;
+    double radius = radii[from];
+
+    // Search the side the histogram falls in first, it tightens the radius soonest
+    if (distance < radius) {
+      if (distance - radius <= getSearchRadius(nearest, k, maxDistance)) {
+        search(from + 1, middle, histogram, k, maxDistance, nearest);
+      }
+      if (radius - distance <= getSearchRadius(nearest, k, maxDistance)) {
+        search(middle, to, histogram, k, maxDistance, nearest);
+      }
+    } else {
+      if (radius - distance <= getSearchRadius(nearest, k, maxDistance)) {
+        search(middle, to, histogram, k, maxDistance, nearest);
+      }
+      if (distance - radius <= getSearchRadius(nearest, k, maxDistance)) {
+        search(from + 1, middle, histogram, k, maxDistance, nearest);
+      }
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/**
+ * Hue Bins
+ * Maps a packed pixel straight to its hue bin without building RGB or HSV
+ * objects. The hue is worked out with the same float steps the old RGBtoHSV
+ * used, so every pixel lands in the same bin, and the 16 range checks of
+ * getBin are replaced by a table indexed by whole degrees.
+ *
+ * code returns the bin in the low four bits with the saturation checks folded
+ * in as flags, so callers need a single call per pixel.
+ */
+class HueBins {
+  static final int BIN_COUNT = 15;
+  static final int BIN_MASK = 0xf;
+
+  // no saturation (r = g = b), the hue is undefined and the bin is 0
+  static final int ACHROMATIC = 1 << 4;
+
+  // every pair of channels within 20 of each other, set for achromatic pixels too
+  static final int NEAR_GREY = 1 << 5;
+
+  // the hue can round up to exactly 360 degrees
+  private static final byte[] BIN_BY_DEGREE = new byte[361];
+
+  static {
+    for (int degree = 0; degree < BIN_BY_DEGREE.length; degree++) {
+      BIN_BY_DEGREE[degree] = (byte) getBin(degree);
+    }
+  }
+
+  private static int getBin(int x) {
+    if (x >= 346 && x <= 354) {
+      // RED
+      return 0;
+    }
+
+    if (x >= 355 || x <= 14) {
+      // RED
+      return 0;
+    }
+
+    if (x >= 15 && x <= 20) {
+      return 1;
+    }
+
+    if (x >= 21 && x <= 35) {
+      return 2;
+    }
+
+    if (x >= 36 && x <= 50) {
+      return 3;
+    }
+
+    if (x >= 51 && x <= 60) {
+      return 4;
+    }
+
+    if (x >= 61 && x <= 80) {
+      return 5;
+    }
+
+    if (x >= 81 && x <= 140) {
+      // GREEN
+      return 6;
+    }
+
+    if (x >= 141 && x <= 169) {
+      return 7;
+    }
+
+    if (x >= 170 && x <= 200) {
+      return 8;
+    }
+
+    if (x >= 201 && x <= 220) {
+      return 9;
+    }
+
+    if (x >= 221 && x <= 240) {
+      // BLUE
+      return 10;
+    }
+
+    if (x >= 241 && x <= 280) {
+      return 11;
+    }
+
+    if (x >= 281 && x <= 320) {
+      return 12;
+    }
+
+    if (x >= 321 && x <= 330) {
+      return 13;
+    }
+
+    if (x >= 331 && x <= 345) {
+      return 14;
+    }
+
+    return 0;
+  }
+
+  /**
+   * Hue bin of a packed 0xRRGGBB pixel ORed with the ACHROMATIC and NEAR_GREY
+   * flags that apply to it.
+   */
+  static int code(int pixel) {
+    int r = pixel >> 16 & 0xff;
+    int g = pixel >> 8 & 0xff;
+    int b = pixel & 0xff;
+
+    int max = Math.max(Math.max(r, g), b);
+    int min = Math.min(Math.min(r, g), b);
+    int delta = max - min;
+
+    if (delta == 0) {
+      return ACHROMATIC | NEAR_GREY;
+    }
+
+    float h;
+    if (r == max)
+      h = (g - b) / (float) delta; // between yellow & magenta
+    else if (g == max)
+      h = 2 + (b - r) / (float) delta; // between cyan & yellow
+    else
+      h = 4 + (r - g) / (float) delta; // between magenta & cyan
+
+    h *= 60; // degrees
+
+    if (h < 0)
+      h += 360;
+
+    int code = BIN_BY_DEGREE[(int) h];
+
+    if (delta <= 20) {
+      code |= NEAR_GREY;
+    }
+
+    return code;
+  }
+}
@@ -1,213 +1,223 @@
-import java.awt.Color;
 import java.awt.Graphics2D;
-import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.image.*;
 import java.io.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import javax.swing.*;
 
-class HSV {
-  float h, s, v;
-
-  HSV(float h, float s, float v) {
-    this.h = h;
-    this.s = s;
-    this.v = v;
-  }
-}
-
-class RGB {
-  int r, g, b;
-
-  RGB(int r, int g, int b) {
-    this.r = r;
-    this.g = g;
-    this.b = b;
-  }
-}
-
 public class ImageDisplay {
   JFrame frame;
   JLabel label;
 
   BufferedImage originalImage;
-  BufferedImage[] objectImages;
 
-  String originalImagePath;
-  String[] objectImagePaths;
+  // backing array of originalImage, packed as 0xRRGGBB
+  int[] originalPixels;
 
-  int[][] objectImageHSVBins;
-  double[][] objectImageHSVBinsNormalised;
+  // HueBins code of every scene pixel, worked out once and shared by all objects
+  byte[] sceneBinCodes;
 
-  // default image width and height
-  int originalHeight = 480;
-  int originalWidth = 640;
+  // boxes whose histogram is further than this from the object's are not the object
+  static final double MAX_BOX_DISTANCE = 0.52;
 
-  private boolean validateArgs(String[] args) {
-    if (args.length < 2) {
-      System.out.println("Need an image and object atleast");
-      return false;
-    }
+  // marks a scene code not worked out yet, pyramid mode only codes the pixels it looks at
+  static final byte UNCODED = -1;
 
-    System.out.println("Number of Arguments: " + args.length);
-    System.out.println();
+  // hue histogram of any rectangle of the scene in constant time
+  IntegralHistogram sceneHistogram;
 
-    originalImagePath = args[0];
-    System.out.println("Original Image Path: " + originalImagePath);
-    System.out.println();
+  // read object histograms from the .object-models store next to the objects
+  boolean useObjectModelStore = true;
 
-    objectImagePaths = Arrays.copyOfRange(args, 1, args.length);
-    objectImages = new BufferedImage[args.length - 1];
-    objectImageHSVBins = new int[args.length - 1][15];
-    objectImageHSVBinsNormalised = new double[args.length - 1][15];
-    for (int i = 0; i < objectImagePaths.length; i++) {
-      System.out.println("Object " + (i + 1) + " Path: " + objectImagePaths[i]);
-    }
+  // build every object's match mask in one sweep of sceneBinCodes instead of one sweep per object
+  boolean isSinglePassMatch = true;
 
-    System.out.println();
-    System.out.println("Finished Initialisation");
-    System.out.println();
+  // build match masks and label them in strips of rows on the common ForkJoinPool
+  boolean isParallel = false;
+  ParallelStrips parallelStrips;
 
-    return true;
-  }
+  // find blobs on a scene this many times smaller first, 0 to match at full resolution everywhere. Faster, but
+  // a small or thin object can break up into specks on the smaller scene and go missing
+  int pyramidFactor = 0;
 
-  private int getPixel(byte r, byte g, byte b, boolean isObject) {
-    int red = r & 0xff;
-    int green = g & 0xff;
-    int blue = b & 0xff;
+  // label every candidate box with up to this many nearest objects from histogramIndex, 0 to only
+  // compare a box with the object whose mask it came from
+  int nearestObjects = 0;
+  HistogramIndex histogramIndex;
 
-    if (isObject && red == 0 && green == 255 && blue == 0) {
-      return Color.BLACK.getRGB();
-    }
+  // find objects with sliding window histograms instead of hue mask blobs
+  boolean isWindowEngine = false;
 
-    return 0xff000000 | ((red) << 16) | ((green) << 8) | blue;
-  }
+  // windows further than this from the object histogram are not reported
+  double maxWindowDistance = 0.3;
 
-  private RGB getRGB(int pixel) {
-    int r = pixel >> 16 & 0xff;
-    int g = pixel >> 8 & 0xff;
-    int b = pixel & 0xff;
+  // keep at most this many windows per object, 0 keeps every window the overlap rule leaves
+  int maxWindowBoxes = 0;
 
-    return new RGB(r, g, b);
-  }
+  // skip the per object and per box console output, used when scanning scenes in batches
+  boolean isQuiet = false;
 
-  private float min3(float a, float b, float c) {
-    return Math.min(Math.min(a, b), c);
-  }
-
-  private float max3(float a, float b, float c) {
-    return Math.max(Math.max(a, b), c);
-  }
+  // stage timings of every scene, video frame and batch this run
+  static final StageMetrics metrics = new StageMetrics("Assignment 2");
 
-  private HSV RGBtoHSV(int pixel) {
-    RGB rgb = getRGB(pixel);
-    int r = rgb.r;
-    int g = rgb.g;
-    int b = rgb.b;
-
-    float min = min3(r, g, b);
-    float max = max3(r, g, b);
+  String originalImagePath;
+  String[] objectImagePaths;
 
-    float delta = max - min;
-    float v = max;
-    float h, s;
+  /**
+   * A box that passed the distance filter, stored transposed like every other
+   * box here: x and width run down the rows.
+   */
+  static class Detection {
+    final int objectIndex;
+    final Rectangle boundingBox;
+    final double distance;
 
-    if (max != 0)
-      s = delta / max; // s
-    else {
-      // r = g = b = 0 // s = 0, v is undefined
-      s = 0;
-      h = 0;
-      return new HSV(h, s, v);
+    Detection(int objectIndex, Rectangle boundingBox, double distance) {
+      this.objectIndex = objectIndex;
+      this.boundingBox = boundingBox;
+      this.distance = distance;
     }
-    if (r == max)
-      h = (g - b) / delta; // between yellow & magenta
-    else if (g == max)
-      h = 2 + (b - r) / delta; // between cyan & yellow
-    else
-      h = 4 + (r - g) / delta; // between magenta & cyan
-
-    h *= 60; // degrees
-
-    if (h < 0)
-      h += 360;
-
-    HSV hsv = new HSV(h, s, v);
-
-    return hsv;
   }
 
-  private int getBin(int x) {
-    if (x >= 346 && x <= 354) {
-      // RED
-      return 0;
-    }
+  // boxes kept for each object file name, and every kept box in the order found
+  Map<String, List<Rectangle>> objectBoundingBoxes = new HashMap<String, List<Rectangle>>();
+  List<Detection> detections = new ArrayList<Detection>();
 
-    if (x >= 355 || x <= 14) {
-      // RED
-      return 0;
-    }
+  int[][] objectImageHSVBins;
+  double[][] objectImageHSVBinsNormalised;
 
-    if (x >= 15 && x <= 20) {
-      return 1;
-    }
+  // default image width and height
+  int originalHeight = 480;
+  int originalWidth = 640;
 
-    if (x >= 21 && x <= 35) {
-      return 2;
+  private boolean validateArgs(String[] args) {
+    // Image path followed by object paths, optional --name=value flags can go anywhere
+    List<String> paths = new ArrayList<String>();
+
+    for (String arg : args) {
+      if (!arg.startsWith("--")) {
+        paths.add(arg);
+      } else if (!parseOption(arg)) {
+        return false;
+      }
     }
 
-    if (x >= 36 && x <= 50) {
-      return 3;
+    if (paths.size() < 2) {
+      System.out.println("Need an image and object atleast");
+      return false;
     }
 
-    if (x >= 51 && x <= 60) {
-      return 4;
-    }
+    System.out.println("Number of Arguments: " + args.length);
+    System.out.println();
 
-    if (x >= 61 && x <= 80) {
-      return 5;
-    }
+    originalImagePath = paths.get(0);
+    System.out.println("Original Image Path: " + originalImagePath);
+    System.out.println();
 
-    if (x >= 81 && x <= 140) {
-      // GREEN
-      return 6;
+    setObjectImagePaths(paths.subList(1, paths.size()).toArray(new String[0]));
+    for (int i = 0; i < objectImagePaths.length; i++) {
+      System.out.println("Object " + (i + 1) + " Path: " + objectImagePaths[i]);
     }
 
-    if (x >= 141 && x <= 169) {
-      return 7;
-    }
+    System.out.println();
+    System.out.println("Engine: " + (isWindowEngine ? "window" : "blobs"));
+    System.out.println("Match: " + (isSinglePassMatch ? "single-pass" : "per-object"));
+    System.out.println("Model Store: " + (useObjectModelStore ? 1 : 0));
+    System.out.println("Parallel: " + (isParallel ? 1 : 0));
+    System.out.println("Pyramid: " + pyramidFactor);
+    System.out.println("Nearest Objects: " + nearestObjects);
 
-    if (x >= 170 && x <= 200) {
-      return 8;
-    }
+    System.out.println();
+    System.out.println("Finished Initialisation");
+    System.out.println();
 
-    if (x >= 201 && x <= 220) {
-      return 9;
-    }
+    return true;
+  }
 
-    if (x >= 221 && x <= 240) {
-      // BLUE
-      return 10;
-    }
+  void setObjectImagePaths(String[] paths) {
+    objectImagePaths = paths;
+    objectImageHSVBins = new int[paths.length][HueBins.BIN_COUNT];
+    objectImageHSVBinsNormalised = new double[paths.length][HueBins.BIN_COUNT];
+  }
 
-    if (x >= 241 && x <= 280) {
-      return 11;
-    }
+  boolean parseOption(String arg) {
+    int separator = arg.indexOf('=');
 
-    if (x >= 281 && x <= 320) {
-      return 12;
+    if (separator == -1) {
+      System.out.println("Invalid flag " + arg + ", Please enter flags in the format '--name=value'");
+      return false;
     }
 
-    if (x >= 321 && x <= 330) {
-      return 13;
-    }
+    String name = arg.substring(2, separator);
+    String value = arg.substring(separator + 1);
 
-    if (x >= 331 && x <= 345) {
-      return 14;
+    switch (name) {
+      case "match":
+        // Match should be single-pass or per-object
+        if (!value.equals("single-pass") && !value.equals("per-object")) {
+          System.out.println("Invalid match, Please enter either single-pass or per-object");
+          return false;
+        }
+        isSinglePassMatch = value.equals("single-pass");
+        return true;
+      case "engine":
+        // Engine should be blobs or window
+        if (!value.equals("blobs") && !value.equals("window")) {
+          System.out.println("Invalid engine, Please enter either blobs or window");
+          return false;
+        }
+        isWindowEngine = value.equals("window");
+        return true;
+      case "window-distance":
+        maxWindowDistance = Double.parseDouble(value);
+        return true;
+      case "window-boxes":
+        maxWindowBoxes = Integer.parseInt(value);
+        // Window boxes should not be negative
+        if (maxWindowBoxes < 0) {
+          System.out.println("Invalid window boxes, Please enter 0 or more");
+          return false;
+        }
+        return true;
+      case "parallel":
+        isParallel = Integer.parseInt(value) == 1;
+        return true;
+      case "pyramid":
+        pyramidFactor = Integer.parseInt(value);
+        // Pyramid should be 0, 2 or 4
+        if (pyramidFactor != 0 && pyramidFactor != 2 && pyramidFactor != 4) {
+          System.out.println("Invalid pyramid, Please enter either 0, 2 or 4");
+          return false;
+        }
+        return true;
+      case "nearest":
+        nearestObjects = Integer.parseInt(value);
+        // Nearest should not be negative
+        if (nearestObjects < 0) {
+          System.out.println("Invalid nearest, Please enter 0 or more");
+          return false;
+        }
+        return true;
+      case "model-store":
+        useObjectModelStore = Integer.parseInt(value) == 1;
+        return true;
+      case "metrics":
+        metrics.jsonPath = value;
+        return true;
+      default:
+        System.out.println("Unknown flag " + arg);
+        return false;
     }
+  }
+
+  private int getPixel(byte r, byte g, byte b) {
+    int red = r & 0xff;
+    int green = g & 0xff;
+    int blue = b & 0xff;
 
-    return 0;
+    return 0xff000000 | ((red) << 16) | ((green) << 8) | blue;
   }
 
   /**
@@ -215,11 +225,7 @@ public class ImageDisplay {
    * Reads the image of given width and height at the given imgPath into the
    * provided BufferedImage.
    */
-  private void readImageRGB(
-      String imagePath,
-      BufferedImage image,
-      boolean isObject,
-      int objectIndex) {
+  private void readImageRGB(String imagePath, BufferedImage image) {
     try {
       int frameLength = originalWidth * originalHeight * 3;
 
@@ -231,38 +237,22 @@ public class ImageDisplay {
 
       raf.read(bytes);
 
+      // Write straight into the raster, setRGB allocates for every pixel
+      int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
       int index = 0;
-      int pixelCount = 0;
       for (int y = 0; y < originalHeight; y++) {
         for (int x = 0; x < originalWidth; x++) {
           byte r = bytes[index];
           byte g = bytes[index + originalHeight * originalWidth];
           byte b = bytes[index + originalHeight * originalWidth * 2];
 
-          int pixel = getPixel(r, g, b, isObject);
-          image.setRGB(x, y, pixel);
-
-          if (isObject) {
-            HSV hsv = RGBtoHSV(pixel);
-
-            if (hsv.s != 0) {
-              pixelCount++;
-              int bin = getBin((int) hsv.h);
-
-              objectImageHSVBins[objectIndex][bin] += 1;
-            }
-          }
+          pixels[index] = getPixel(r, g, b);
 
           index++;
         }
       }
 
-      if (isObject) {
-        for (int i = 0; i < objectImageHSVBins[objectIndex].length; i++) {
-          objectImageHSVBinsNormalised[objectIndex][i] = (double) objectImageHSVBins[objectIndex][i] / pixelCount;
-        }
-      }
-
       raf.close();
     } catch (FileNotFoundException e) {
       e.printStackTrace();
@@ -271,6 +261,64 @@ public class ImageDisplay {
     }
   }
 
+  /**
+   * Load Object Models
+   * Fills the object histograms from the model store kept next to each object
+   * image, only reading the images that are new or have changed.
+   */
+  void loadObjectModels() {
+    long startTime = System.nanoTime();
+    Map<Path, ObjectModelStore> stores = new LinkedHashMap<Path, ObjectModelStore>();
+
+    for (int i = 0; i < objectImagePaths.length; i++) {
+      Path objectPath = Path.of(objectImagePaths[i]).toAbsolutePath();
+
+      try {
+        ObjectModelStore.ObjectModel model;
+
+        if (useObjectModelStore) {
+          ObjectModelStore store = stores.get(objectPath.getParent());
+
+          if (store == null) {
+            store = new ObjectModelStore(objectPath.getParent());
+            stores.put(objectPath.getParent(), store);
+          }
+
+          model = store.get(objectPath, originalWidth, originalHeight);
+        } else {
+          model = ObjectModelStore.build(Files.readAllBytes(objectPath), originalWidth, originalHeight);
+        }
+
+        objectImageHSVBins[i] = model.bins;
+        objectImageHSVBinsNormalised[i] = model.binsNormalised;
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+
+    int hits = 0;
+    for (ObjectModelStore store : stores.values()) {
+      hits += store.hits;
+
+      try {
+        store.save();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+
+    System.out.println("Object Models From Store: " + hits + " of " + objectImagePaths.length);
+    System.out.printf("Object Model Time: %.1f ms%n", (System.nanoTime() - startTime) / 1e6);
+
+    if (nearestObjects > 0) {
+      startTime = System.nanoTime();
+      histogramIndex = new HistogramIndex(objectImageHSVBinsNormalised);
+      System.out.printf("Histogram Index Time: %.1f ms%n", (System.nanoTime() - startTime) / 1e6);
+    }
+
+    System.out.println();
+  }
+
   private int getSecondLargestBinFreq(int[] currObjectImageHSVBinsFreq) {
     int largest = -1;
     for (int i = 0; i < currObjectImageHSVBinsFreq.length; i++) {
@@ -290,99 +338,256 @@ public class ImageDisplay {
   }
 
   private boolean getObjectPixelMatch(int pixel, int[] currObjectImageHSVBinsFreq, int secondLargestFreq) {
-    RGB rgb = getRGB(pixel);
-    HSV hsv = RGBtoHSV(pixel);
+    int code = HueBins.code(pixel);
 
-    if (hsv.s == 0) {
+    // Greys and near greys never match, whatever their hue works out to
+    if ((code & HueBins.NEAR_GREY) != 0) {
       return false;
     }
 
-    if (rgb.r == rgb.b && rgb.b == rgb.g) {
-      return false;
-    }
+    return currObjectImageHSVBinsFreq[code & HueBins.BIN_MASK] >= secondLargestFreq;
+  }
 
-    if (Math.abs(rgb.r - rgb.g) <= 20 && Math.abs(rgb.r - rgb.b) <= 20 && Math.abs(rgb.b - rgb.g) <= 20) {
-      return false;
+  /**
+   * Runs task over all rows, split into strips on the pool when running in
+   * parallel.
+   */
+  private void forEachRows(ParallelStrips.RowTask task) {
+    if (parallelStrips != null) {
+      parallelStrips.forEach(task);
+    } else {
+      task.run(0, originalHeight);
     }
-
-    int bin = getBin((int) hsv.h);
-
-    return currObjectImageHSVBinsFreq[bin] >= secondLargestFreq;
   }
 
-  private int[][] buildMatchMatix(int[] currObjectImageHSVBinsFreq) {
-    int[][] matchMatrix = new int[originalHeight][originalWidth];
+  private BitMask buildMatchMatix(int[] currObjectImageHSVBinsFreq) {
+    BitMask matchMask = new BitMask(originalWidth, originalHeight);
 
     int secondLargestFreq = getSecondLargestBinFreq(currObjectImageHSVBinsFreq);
 
-    for (int row = 0; row < originalHeight; row++) {
+    try (StageMetrics.Stage stage = metrics.start("buildMatchMatix")) {
+      forEachRows((firstRow, endRow) -> fillMatchMatix(matchMask, currObjectImageHSVBinsFreq, secondLargestFreq,
+          firstRow, endRow));
+      stage.addPixels(originalPixels.length);
+    }
+
+    return matchMask;
+  }
+
+  private void fillMatchMatix(BitMask matchMask, int[] currObjectImageHSVBinsFreq, int secondLargestFreq,
+      int firstRow, int endRow) {
+    for (int row = firstRow; row < endRow; row++) {
       for (int col = 0; col < originalWidth; col++) {
-        matchMatrix[row][col] = getObjectPixelMatch(
-            originalImage.getRGB(col, row),
+        if (getObjectPixelMatch(
+            originalPixels[row * originalWidth + col],
             currObjectImageHSVBinsFreq,
-            secondLargestFreq) ? 1 : 0;
+            secondLargestFreq)) {
+          matchMask.set(row, col);
+        }
+      }
+    }
+  }
+
+  private void buildSceneBinCodes() {
+    sceneBinCodes = new byte[originalPixels.length];
+
+    for (int index = 0; index < originalPixels.length; index++) {
+      sceneBinCodes[index] = (byte) HueBins.code(originalPixels[index]);
+    }
+  }
+
+  /**
+   * Builds the match mask of every object in one sweep of sceneBinCodes. Each
+   * bin maps to the set of objects whose top bins include it, so a pixel only
+   * costs a table lookup and a bit set per object it matches. Objects are taken
+   * 64 at a time to fit the set in a long.
+   */
+  private BitMask[] buildMatchMasks() {
+    int objectCount = objectImagePaths.length;
+    BitMask[] matchMasks = new BitMask[objectCount];
+
+    for (int i = 0; i < objectCount; i++) {
+      matchMasks[i] = new BitMask(originalWidth, originalHeight);
+    }
+
+    for (int first = 0; first < objectCount; first += 64) {
+      long[] objectsByBin = getObjectsByBin(first);
+
+      int firstObject = first;
+      forEachRows((firstRow, endRow) -> fillMatchMasks(matchMasks, firstObject, objectsByBin, firstRow, endRow));
+    }
+
+    return matchMasks;
+  }
+
+  /**
+   * For each bin, the set of objects first to first + 63 whose top bins
+   * include it, object i as bit i - first.
+   */
+  long[] getObjectsByBin(int first) {
+    long[] objectsByBin = new long[HueBins.BIN_COUNT];
+
+    for (int i = first; i < Math.min(objectImagePaths.length, first + 64); i++) {
+      int secondLargestFreq = getSecondLargestBinFreq(objectImageHSVBins[i]);
+
+      for (int bin = 0; bin < HueBins.BIN_COUNT; bin++) {
+        if (objectImageHSVBins[i][bin] >= secondLargestFreq) {
+          objectsByBin[bin] |= 1L << (i - first);
+        }
       }
     }
 
-    return matchMatrix;
+    return objectsByBin;
   }
 
-  private Rectangle bfs(int initialRow, int initialCol, int[][] visited, int[][] matchMatrix) {
-    Queue<Point> q = new LinkedList<Point>();
+  private int getSceneBinCode(int index) {
+    if (sceneBinCodes[index] == UNCODED) {
+      sceneBinCodes[index] = (byte) HueBins.code(originalPixels[index]);
+    }
+    return sceneBinCodes[index];
+  }
 
-    visited[initialRow][initialCol] = 1;
-    q.add(new Point(initialRow, initialCol));
+  private boolean isSceneMatch(int index, long[] objectsByBin, long object) {
+    int code = getSceneBinCode(index);
 
-    int minRow = originalHeight, maxRow = -1, minCol = originalWidth, maxCol = -1;
+    // Greys and near greys never match
+    return (code & HueBins.NEAR_GREY) == 0 && (objectsByBin[code & HueBins.BIN_MASK] & object) != 0;
+  }
 
-    while (!q.isEmpty()) {
-      Point p = q.remove();
+  /**
+   * Full resolution mask of one object, matched inside the candidate regions
+   * and then flood filled outwards across their edges, so a blob that only
+   * partly lies in a region still comes out whole.
+   */
+  private BitMask buildRegionMatchMask(List<Rectangle> regions, long[] objectsByBin, long object) {
+    BitMask matchMask = new BitMask(originalWidth, originalHeight);
+    BitMask tested = new BitMask(originalWidth, originalHeight);
+
+    int[] stack = new int[256];
+    int stackSize = 0;
+
+    for (Rectangle region : regions) {
+      for (int row = region.x; row < region.x + region.width; row++) {
+        for (int col = region.y; col < region.y + region.height; col++) {
+          // Regions can overlap
+          if (tested.get(row, col)) {
+            continue;
+          }
+          tested.set(row, col);
 
-      int currentRow = p.x;
-      int currentCol = p.y;
+          int index = row * originalWidth + col;
 
-      minRow = Math.min(currentRow, minRow);
-      minCol = Math.min(currentCol, minCol);
-      maxRow = Math.max(currentRow, maxRow);
-      maxCol = Math.max(currentCol, maxCol);
+          if (isSceneMatch(index, objectsByBin, object)) {
+            matchMask.set(row, col);
 
-      Point[] neighbours = { new Point(-1, -1), new Point(-1, 0), new Point(-1, 1),
-          new Point(0, -1), new Point(0, 0),
-          new Point(0, 1), new Point(1, -1), new Point(1, 0), new Point(1, 1) };
+            // Only matches on the edge of a region can have neighbours left to test
+            boolean isEdge = row == region.x || row == region.x + region.width - 1 || col == region.y
+                || col == region.y + region.height - 1;
 
-      for (Point neighbour : neighbours) {
-        int row = currentRow + neighbour.x;
-        int col = currentCol + neighbour.y;
+            if (!isEdge) {
+              continue;
+            }
 
-        if (col >= 0 && col < originalWidth && row >= 0 && row < originalHeight) {
-          if (matchMatrix[row][col] == 1 && visited[row][col] == 0) {
-            visited[row][col] = 1;
-            q.add(new Point(row, col));
+            if (stackSize == stack.length) {
+              stack = Arrays.copyOf(stack, stackSize * 2);
+            }
+            stack[stackSize++] = index;
           }
         }
       }
     }
 
-    return new Rectangle(minRow, minCol, maxRow - minRow + 1, maxCol - minCol + 1);
-  }
+    while (stackSize > 0) {
+      int index = stack[--stackSize];
+      int row = index / originalWidth;
+      int col = index % originalWidth;
 
-  private List<Rectangle> getObjectBoundingBoxes(int[][] matchMatrix) {
-    int[][] visited = new int[originalHeight][originalWidth];
+      for (int neighbourRow = Math.max(0, row - 1); neighbourRow <= Math.min(originalHeight - 1, row + 1);
+          neighbourRow++) {
+        for (int neighbourCol = Math.max(0, col - 1); neighbourCol <= Math.min(originalWidth - 1, col + 1);
+            neighbourCol++) {
+          if (tested.get(neighbourRow, neighbourCol)) {
+            continue;
+          }
+          tested.set(neighbourRow, neighbourCol);
 
-    List<Rectangle> boundingBoxes = new ArrayList<Rectangle>();
+          int neighbour = neighbourRow * originalWidth + neighbourCol;
 
-    for (int row = 0; row < originalHeight; row++) {
-      for (int col = 0; col < originalWidth; col++) {
-        if (visited[row][col] == 0 && matchMatrix[row][col] == 1) {
-          Rectangle boundingBox = bfs(row, col, visited, matchMatrix);
+          if (isSceneMatch(neighbour, objectsByBin, object)) {
+            matchMask.set(neighbourRow, neighbourCol);
 
-          if (boundingBox != null) {
-            boundingBoxes.add(boundingBox);
+            if (stackSize == stack.length) {
+              stack = Arrays.copyOf(stack, stackSize * 2);
+            }
+            stack[stackSize++] = neighbour;
           }
         }
       }
     }
 
+    return matchMask;
+  }
+
+  /**
+   * Builds the match masks coarse to fine. Every object is matched on a
+   * ScenePyramid first, and the full resolution scene is only coded and
+   * matched around the coarse blobs that could pass the size filter. Small
+   * blobs lying wholly outside those regions are never found.
+   */
+  private BitMask[] buildPyramidMatchMasks() {
+    int objectCount = objectImagePaths.length;
+    BitMask[] matchMasks = new BitMask[objectCount];
+
+    sceneBinCodes = new byte[originalPixels.length];
+    Arrays.fill(sceneBinCodes, UNCODED);
+
+    ScenePyramid pyramid = new ScenePyramid(originalPixels, originalWidth, originalHeight, pyramidFactor);
+
+    for (int first = 0; first < objectCount; first += 64) {
+      long[] objectsByBin = getObjectsByBin(first);
+      BitMask[] coarseMasks = pyramid.buildMatchMasks(objectsByBin, Math.min(64, objectCount - first));
+
+      for (int i = first; i < Math.min(objectCount, first + 64); i++) {
+        List<Rectangle> regions = pyramid.getCandidateRegions(coarseMasks[i - first]);
+
+        matchMasks[i] = buildRegionMatchMask(regions, objectsByBin, 1L << (i - first));
+      }
+    }
+
+    return matchMasks;
+  }
+
+  private void fillMatchMasks(BitMask[] matchMasks, int firstObject, long[] objectsByBin, int firstRow, int endRow) {
+    for (int row = firstRow, index = firstRow * originalWidth; row < endRow; row++) {
+      for (int col = 0; col < originalWidth; col++, index++) {
+        int code = sceneBinCodes[index];
+
+        // Greys and near greys never match
+        if ((code & HueBins.NEAR_GREY) != 0) {
+          continue;
+        }
+
+        for (long objects = objectsByBin[code & HueBins.BIN_MASK]; objects != 0; objects &= objects - 1) {
+          matchMasks[firstObject + Long.numberOfTrailingZeros(objects)].set(row, col);
+        }
+      }
+    }
+  }
+
+  List<Rectangle> getObjectBoundingBoxes(BitMask matchMask) {
+    List<Rectangle> boundingBoxes = new ArrayList<Rectangle>();
+
+    List<ComponentLabeller.Component> components;
+
+    try (StageMetrics.Stage stage = metrics.start("labelMatchMask")) {
+      components = parallelStrips != null ? parallelStrips.label(matchMask) : new ComponentLabeller().label(matchMask);
+      stage.addPixels((long) originalWidth * originalHeight);
+    }
+
+    for (ComponentLabeller.Component component : components) {
+      boundingBoxes.add(component.bounds);
+    }
+
     int maxClusterSize = -1;
 
     for (Rectangle rect : boundingBoxes) {
@@ -416,62 +621,160 @@ public class ImageDisplay {
     return Math.sqrt(total);
   }
 
-  private List<Rectangle> filterBoundingBoxesByDistance(List<Rectangle> boundingBoxes,
-      double[] currObjectImageHSVBinsNormalised) {
-    List<Rectangle> filteredBoundingBoxes = new ArrayList<Rectangle>();
+  /**
+   * Distance between the hue histogram of the scene inside boundingBox and the
+   * object's, binCounts is scratch space.
+   */
+  double getBoxDistance(Rectangle boundingBox, int objectIndex, int[] binCounts) {
+    double[] currBoundingBoxHSVBinNormalised = getBoxHistogram(boundingBox, binCounts);
 
-    for (Rectangle boundingBox : boundingBoxes) {
-      double[] currBoundingBoxHSVBinNormalised = new double[15];
+    return calculateEuclideanDistance(currBoundingBoxHSVBinNormalised, objectImageHSVBinsNormalised[objectIndex]);
+  }
 
-      int pixelCount = boundingBox.width * boundingBox.height;
+  /**
+   * Normalised hue histogram of the scene inside boundingBox, binCounts is
+   * scratch space.
+   */
+  private double[] getBoxHistogram(Rectangle boundingBox, int[] binCounts) {
+    double[] currBoundingBoxHSVBinNormalised = new double[HueBins.BIN_COUNT];
+
+    int pixelCount = boundingBox.width * boundingBox.height;
+
+    // Boxes are transposed, x and width run down the rows
+    if (sceneHistogram != null) {
+      sceneHistogram.getHistogram(boundingBox.x, boundingBox.y, boundingBox.x + boundingBox.width,
+          boundingBox.y + boundingBox.height, binCounts);
+    } else {
+      // No integral histogram in pyramid and video modes, count the few boxes directly
+      Arrays.fill(binCounts, 0);
+
+      for (int row = boundingBox.x; row < boundingBox.x + boundingBox.width; row++) {
+        for (int col = boundingBox.y; col < boundingBox.y + boundingBox.height; col++) {
+          binCounts[getSceneBinCode(row * originalWidth + col) & HueBins.BIN_MASK]++;
+        }
+      }
+    }
 
-      for (int row = 0; row < boundingBox.width; row++) {
-        for (int col = 0; col < boundingBox.height; col++) {
-          int currentRow = boundingBox.x + row;
-          int currentCol = boundingBox.y + col;
+    for (int i = 0; i < currBoundingBoxHSVBinNormalised.length; i++) {
+      currBoundingBoxHSVBinNormalised[i] = (double) binCounts[i] / pixelCount;
+    }
 
-          int pixel = originalImage.getRGB(currentCol, currentRow);
+    return currBoundingBoxHSVBinNormalised;
+  }
 
-          HSV hsv = RGBtoHSV(pixel);
+  private List<Rectangle> filterBoundingBoxesByDistance(List<Rectangle> boundingBoxes, int objectIndex) {
+    List<Rectangle> filteredBoundingBoxes = new ArrayList<Rectangle>();
+    int[] binCounts = new int[HueBins.BIN_COUNT];
 
-          int bin = getBin((int) hsv.h);
+    for (Rectangle boundingBox : boundingBoxes) {
+      double distance = getBoxDistance(boundingBox, objectIndex, binCounts);
 
-          currBoundingBoxHSVBinNormalised[bin] += 1;
-        }
+      if (!isQuiet) {
+        System.out.println("Object Rectangle: " + boundingBox);
+        System.out.println("Eucledian Distance: " + distance);
       }
 
-      for (int i = 0; i < currBoundingBoxHSVBinNormalised.length; i++) {
-        currBoundingBoxHSVBinNormalised[i] /= pixelCount;
+      if (distance <= MAX_BOX_DISTANCE) {
+        filteredBoundingBoxes.add(boundingBox);
+        detections.add(new Detection(objectIndex, boundingBox, distance));
       }
+    }
 
-      double distance = calculateEuclideanDistance(currBoundingBoxHSVBinNormalised, currObjectImageHSVBinsNormalised);
+    return filteredBoundingBoxes;
+  }
 
-      System.out.println("Object Rectangle: " + boundingBox);
-      System.out.println("Eucledian Distance: " + distance);
+  private List<Rectangle> obtainObjectBoundingBoxes(int objectIndex, BitMask matchMask) {
+    List<Rectangle> boundingBoxes = getObjectBoundingBoxes(matchMask);
 
-      if (distance <= 0.52) {
-        filteredBoundingBoxes.add(boundingBox);
+    List<Rectangle> filteredBoundingBoxes;
+
+    try (StageMetrics.Stage stage = metrics.start("filterBoundingBoxesByDistance")) {
+      filteredBoundingBoxes = filterBoundingBoxesByDistance(boundingBoxes, objectIndex);
+
+      for (Rectangle boundingBox : boundingBoxes) {
+        stage.addPixels((long) boundingBox.width * boundingBox.height);
       }
     }
 
     return filteredBoundingBoxes;
   }
 
-  private List<Rectangle> obtainObjectBoundingBoxes(int objectIndex) {
-    int[] currObjectImageHSVBinsFreq = objectImageHSVBins[objectIndex];
+  /**
+   * Boxes of the windows whose histograms are closest to the object's, sized
+   * from the object's pixel count.
+   */
+  private List<Rectangle> obtainWindowBoundingBoxes(int objectIndex) {
+    int objectPixelCount = 0;
+    for (int count : objectImageHSVBins[objectIndex]) {
+      objectPixelCount += count;
+    }
 
-    int[][] matchMatrix = buildMatchMatix(currObjectImageHSVBinsFreq);
+    SlidingWindowDetector detector = new SlidingWindowDetector(sceneBinCodes, originalWidth, originalHeight);
+    List<Rectangle> boundingBoxes = new ArrayList<Rectangle>();
+    List<Detection> windowDetections;
 
-    List<Rectangle> boundingBoxes = getObjectBoundingBoxes(matchMatrix);
+    try (StageMetrics.Stage stage = metrics.start("slideWindows")) {
+      windowDetections = detector.detect(objectIndex, objectImageHSVBinsNormalised[objectIndex], objectPixelCount,
+          maxWindowDistance, maxWindowBoxes);
+      stage.addPixels(originalPixels.length);
+    }
 
-    double[] currObjectImageHSVBinsNormalised = objectImageHSVBinsNormalised[objectIndex];
-    List<Rectangle> filteredBoundingBoxes = filterBoundingBoxesByDistance(boundingBoxes,
-        currObjectImageHSVBinsNormalised);
+    for (Detection detection : windowDetections) {
+      if (!isQuiet) {
+        System.out.println("Object Rectangle: " + detection.boundingBox);
+        System.out.println("Eucledian Distance: " + detection.distance);
+      }
 
-    return filteredBoundingBoxes;
+      boundingBoxes.add(detection.boundingBox);
+      detections.add(detection);
+    }
+
+    return boundingBoxes;
   }
 
-  private String getFileName(String path) {
+  /**
+   * Gathers the candidate boxes of every object's mask and labels each one with
+   * the objects nearest to it in histogramIndex, whichever mask it came from.
+   */
+  private void detectNearestObjects(BitMask[] matchMasks) {
+    Set<Rectangle> boundingBoxes = new LinkedHashSet<Rectangle>();
+
+    for (int i = 0; i < objectImagePaths.length; i++) {
+      BitMask matchMask = matchMasks != null ? matchMasks[i] : buildMatchMatix(objectImageHSVBins[i]);
+
+      boundingBoxes.addAll(getObjectBoundingBoxes(matchMask));
+      objectBoundingBoxes.put(getFileName(objectImagePaths[i]), new ArrayList<Rectangle>());
+    }
+
+    int[] binCounts = new int[HueBins.BIN_COUNT];
+
+    for (Rectangle boundingBox : boundingBoxes) {
+      List<HistogramIndex.Neighbour> neighbours;
+
+      try (StageMetrics.Stage stage = metrics.start("getNearestObjects")) {
+        neighbours = histogramIndex.getNearest(getBoxHistogram(boundingBox, binCounts), nearestObjects,
+            MAX_BOX_DISTANCE);
+        stage.addPixels((long) boundingBox.width * boundingBox.height);
+      }
+
+      if (!isQuiet) {
+        System.out.println("Object Rectangle: " + boundingBox);
+      }
+
+      for (HistogramIndex.Neighbour neighbour : neighbours) {
+        String fileName = getFileName(objectImagePaths[neighbour.objectIndex]);
+
+        if (!isQuiet) {
+          System.out.println("Nearest Object: " + fileName + " " + neighbour.distance);
+        }
+
+        objectBoundingBoxes.get(fileName).add(boundingBox);
+        detections.add(new Detection(neighbour.objectIndex, boundingBox, neighbour.distance));
+      }
+    }
+  }
+
+  String getFileName(String path) {
     String[] values = path.split("/");
 
     for (String value : values) {
@@ -483,30 +786,94 @@ public class ImageDisplay {
     return "";
   }
 
-  public void showImage() {
+  /**
+   * Detect Objects
+   * Reads the scene and finds the boxes of every object whose histogram has
+   * already been loaded, filling objectBoundingBoxes and detections.
+   */
+  void detectObjects() {
     // Read in the specified image
-    originalImage = new BufferedImage(originalWidth, originalHeight, BufferedImage.TYPE_INT_RGB);
-    readImageRGB(originalImagePath, originalImage, false, -1);
+    try (StageMetrics.Stage stage = metrics.start("readImageRGB")) {
+      originalImage = new BufferedImage(originalWidth, originalHeight, BufferedImage.TYPE_INT_RGB);
+      readImageRGB(originalImagePath, originalImage);
+      originalPixels = ((DataBufferInt) originalImage.getRaster().getDataBuffer()).getData();
+      stage.addPixels(originalPixels.length);
+    }
 
-    // Read object images
-    for (int i = 0; i < objectImages.length; i++) {
-      objectImages[i] = new BufferedImage(originalWidth, originalHeight, BufferedImage.TYPE_INT_RGB);
-      readImageRGB(objectImagePaths[i], objectImages[i], true, i);
+    if (isParallel) {
+      parallelStrips = new ParallelStrips(ForkJoinPool.commonPool(), originalHeight);
     }
 
-    Map<String, List<Rectangle>> objectBoundingBoxes = new HashMap<String, List<Rectangle>>();
+    BitMask[] matchMasks = null;
+
+    if (pyramidFactor > 0 && !isWindowEngine) {
+      sceneHistogram = null;
+
+      try (StageMetrics.Stage stage = metrics.start("buildPyramidMatchMasks")) {
+        matchMasks = buildPyramidMatchMasks();
+        stage.addPixels(originalPixels.length);
+      }
+    } else {
+      try (StageMetrics.Stage stage = metrics.start("buildSceneBinCodes")) {
+        buildSceneBinCodes();
+        stage.addPixels(originalPixels.length);
+      }
+
+      try (StageMetrics.Stage stage = metrics.start("buildIntegralHistogram")) {
+        sceneHistogram = new IntegralHistogram(sceneBinCodes, originalWidth, originalHeight);
+        stage.addPixels(originalPixels.length);
+      }
+
+      if (isSinglePassMatch && !isWindowEngine) {
+        try (StageMetrics.Stage stage = metrics.start("buildMatchMasks")) {
+          matchMasks = buildMatchMasks();
+          stage.addPixels(originalPixels.length);
+        }
+      }
+    }
+
+    if (nearestObjects > 0 && !isWindowEngine) {
+      detectNearestObjects(matchMasks);
+      return;
+    }
 
     for (int i = 0; i < objectImagePaths.length; i++) {
       String fileName = getFileName(objectImagePaths[i]);
 
-      System.out.println("Object: " + getFileName(objectImagePaths[i]));
-      System.out.println(Arrays.toString(objectImageHSVBins[i]));
+      if (!isQuiet) {
+        System.out.println("Object: " + getFileName(objectImagePaths[i]));
+        System.out.println(Arrays.toString(objectImageHSVBins[i]));
+      }
+
+      List<Rectangle> boundingBoxes;
 
-      List<Rectangle> boundingBoxes = obtainObjectBoundingBoxes(i);
+      if (isWindowEngine) {
+        boundingBoxes = obtainWindowBoundingBoxes(i);
+      } else {
+        BitMask matchMask = matchMasks != null ? matchMasks[i] : buildMatchMatix(objectImageHSVBins[i]);
+        boundingBoxes = obtainObjectBoundingBoxes(i, matchMask);
+      }
 
-      System.out.println();
+      if (!isQuiet) {
+        System.out.println();
+      }
       objectBoundingBoxes.put(fileName, boundingBoxes);
     }
+  }
+
+  public void showImage() {
+    // Object images are only needed for their histograms
+    try (StageMetrics.Stage stage = metrics.start("loadObjectModels")) {
+      loadObjectModels();
+      stage.addPixels((long) objectImagePaths.length * originalWidth * originalHeight);
+    }
+
+    try (StageMetrics.Stage stage = metrics.start("detectObjects")) {
+      detectObjects();
+      stage.addPixels(originalPixels.length);
+    }
+
+    metrics.report();
 
     // Use label to display the image
     frame = new JFrame();
@@ -532,6 +899,33 @@ public class ImageDisplay {
   }
 
   public static void main(String[] args) {
+    // Batch mode scans a directory of scenes headless
+    if (args.length > 0 && args[0].startsWith("--batch=")) {
+      BatchScanner batchScanner = new BatchScanner();
+
+      if (!batchScanner.validateArgs(args)) {
+        System.exit(1);
+      }
+
+      // Any scene that could not be scanned fails the batch
+      if (!batchScanner.run()) {
+        System.exit(1);
+      }
+      return;
+    }
+
+    // Video mode runs the detector over every frame of a raw video
+    if (args.length > 0 && args[0].startsWith("--video=")) {
+      VideoStream videoStream = new VideoStream();
+
+      if (!videoStream.validateArgs(args)) {
+        System.exit(1);
+      }
+
+      videoStream.run();
+      return;
+    }
+
     ImageDisplay renderImage = new ImageDisplay();
 
     // Validating Arguments
@@ -0,0 +1,62 @@
+import java.util.Arrays;
+
+/**
+ * Integral Histogram
+ * A summed area table per hue bin over the scene, so the hue histogram of any
+ * rectangle costs four lookups per bin however large it is. The bins of one
+ * corner sit next to each other, so a query reads four short runs of memory.
+ */
+class IntegralHistogram {
+  final int width;
+  final int height;
+
+  // count of each bin over rows [0, row) and columns [0, col) at ((row * (width + 1)) + col) * BIN_COUNT + bin
+  private final int[] table;
+
+  IntegralHistogram(byte[] binCodes, int width, int height) {
+    this.width = width;
+    this.height = height;
+
+    int bins = HueBins.BIN_COUNT;
+    int stride = (width + 1) * bins;
+
+    table = new int[(height + 1) * stride];
+
+    int[] rowCounts = new int[bins];
+
+    for (int row = 0; row < height; row++) {
+      Arrays.fill(rowCounts, 0);
+
+      int above = row * stride + bins;
+      int current = above + stride;
+
+      for (int col = 0; col < width; col++, above += bins, current += bins) {
+        rowCounts[binCodes[row * width + col] & HueBins.BIN_MASK]++;
+
+        for (int bin = 0; bin < bins; bin++) {
+          table[current + bin] = table[above + bin] + rowCounts[bin];
+        }
+      }
+    }
+  }
+
+  /**
+   * Fills counts with the number of pixels of each bin in rows [top, bottom) and
+   * columns [left, right).
+   */
+  int[] getHistogram(int top, int left, int bottom, int right, int[] counts) {
+    int bins = HueBins.BIN_COUNT;
+    int stride = (width + 1) * bins;
+
+    int topLeft = top * stride + left * bins;
+    int topRight = top * stride + right * bins;
+    int bottomLeft = bottom * stride + left * bins;
+    int bottomRight = bottom * stride + right * bins;
+
+    for (int bin = 0; bin < bins; bin++) {
+      counts[bin] = table[bottomRight + bin] - table[bottomLeft + bin] - table[topRight + bin] + table[topLeft + bin];
+    }
+
+    return counts;
+  }
+}
@@ -0,0 +1,230 @@
+import java.io.*;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Object Model Store
+ * Keeps the hue histograms of the object images in a directory in one small
+ * binary file, .object-models, next to them. An object whose size and
+ * modification time match its stored model is never read at all. One that has
+ * changed is read and hashed, and only rebuilt when the contents really differ.
+ *
+ * Store layout, big endian: magic, version, bin count, model count, then per
+ * model the file name, size, modification time, SHA-256 of the contents,
+ * width, height, non-green pixel count, the bin counts and the normalised bins.
+ */
+class ObjectModelStore {
+  static final String FILE_NAME = ".object-models";
+
+  private static final int MAGIC = 0x4f424d53;
+  private static final int VERSION = 1;
+
+  /**
+   * Hue histogram of one object image, with the green screen left out.
+   */
+  static class ObjectModel {
+    String fileName;
+    long size;
+    long modified;
+    String hash;
+    int width;
+    int height;
+
+    int pixelCount;
+    int[] bins = new int[HueBins.BIN_COUNT];
+    double[] binsNormalised = new double[HueBins.BIN_COUNT];
+  }
+
+  final Path directory;
+  final Path storePath;
+
+  int hits;
+
+  private final Map<String, ObjectModel> models = new LinkedHashMap<String, ObjectModel>();
+  private boolean isDirty = false;
+
+  ObjectModelStore(Path directory) {
+    this.directory = directory;
+    this.storePath = directory.resolve(FILE_NAME);
+
+    if (Files.exists(storePath)) {
+      try {
+        load();
+      } catch (IOException e) {
+        // Start over, the store is rewritten on save
+        e.printStackTrace();
+        models.clear();
+      }
+    }
+  }
+
+  private void load() throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(storePath)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != HueBins.BIN_COUNT) {
+        throw new IOException("Unrecognised object model store " + storePath);
+      }
+
+      int count = in.readInt();
+
+      for (int i = 0; i < count; i++) {
+        ObjectModel model = new ObjectModel();
+
+        model.fileName = in.readUTF();
+        model.size = in.readLong();
+        model.modified = in.readLong();
+        model.hash = in.readUTF();
+        model.width = in.readInt();
+        model.height = in.readInt();
+        model.pixelCount = in.readInt();
+
+        for (int bin = 0; bin < HueBins.BIN_COUNT; bin++) {
+          model.bins[bin] = in.readInt();
+        }
+
+        for (int bin = 0; bin < HueBins.BIN_COUNT; bin++) {
+          model.binsNormalised[bin] = in.readDouble();
+        }
+
+        models.put(model.fileName, model);
+      }
+    }
+  }
+
+  /**
+   * Writes the store back if any model was added or refreshed, through a
+   * temporary file of its own so a reader never sees half of it and runs
+   * saving the same directory at once do not write over each other. The last
+   * one to finish wins.
+   */
+  synchronized void save() throws IOException {
+    if (!isDirty) {
+      return;
+    }
+
+    Path partialPath = Files.createTempFile(directory, FILE_NAME, ".partial");
+
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(partialPath)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(HueBins.BIN_COUNT);
+      out.writeInt(models.size());
+
+      for (ObjectModel model : models.values()) {
+        out.writeUTF(model.fileName);
+        out.writeLong(model.size);
+        out.writeLong(model.modified);
+        out.writeUTF(model.hash);
+        out.writeInt(model.width);
+        out.writeInt(model.height);
+        out.writeInt(model.pixelCount);
+
+        for (int bin = 0; bin < HueBins.BIN_COUNT; bin++) {
+          out.writeInt(model.bins[bin]);
+        }
+
+        for (int bin = 0; bin < HueBins.BIN_COUNT; bin++) {
+          out.writeDouble(model.binsNormalised[bin]);
+        }
+      }
+    }
+
+    try {
+      Files.move(partialPath, storePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      // A store another run has just published is as good as this one
+      if (!Files.exists(storePath)) {
+        throw e;
+      }
+      Files.deleteIfExists(partialPath);
+    }
+    isDirty = false;
+  }
+
+  /**
+   * Model of the object image at path, from the store when it is up to date and
+   * built from the image otherwise.
+   */
+  synchronized ObjectModel get(Path path, int width, int height) throws IOException {
+    String fileName = path.getFileName().toString();
+    long size = Files.size(path);
+    long modified = Files.getLastModifiedTime(path).toMillis();
+
+    ObjectModel model = models.get(fileName);
+    boolean isSameShape = model != null && model.width == width && model.height == height;
+
+    if (isSameShape && model.size == size && model.modified == modified) {
+      hits++;
+      return model;
+    }
+
+    byte[] bytes = Files.readAllBytes(path);
+    String hash = hash(bytes);
+
+    if (isSameShape && model.hash.equals(hash)) {
+      // Touched but not changed
+      hits++;
+    } else {
+      model = build(bytes, width, height);
+      model.fileName = fileName;
+      model.hash = hash;
+      models.put(fileName, model);
+    }
+
+    model.size = size;
+    model.modified = modified;
+    isDirty = true;
+
+    return model;
+  }
+
+  private static String hash(byte[] bytes) throws IOException {
+    try {
+      return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Counts the hue bin of every pixel of a planar object image that is neither
+   * the pure green screen nor otherwise without saturation.
+   */
+  static ObjectModel build(byte[] bytes, int width, int height) throws IOException {
+    int planeLength = width * height;
+
+    if (bytes.length < planeLength * 3) {
+      throw new IOException("Expected " + planeLength * 3 + " bytes but found " + bytes.length);
+    }
+
+    ObjectModel model = new ObjectModel();
+    model.width = width;
+    model.height = height;
+
+    for (int index = 0; index < planeLength; index++) {
+      int red = bytes[index] & 0xff;
+      int green = bytes[index + planeLength] & 0xff;
+      int blue = bytes[index + planeLength * 2] & 0xff;
+
+      // The green screen around the object
+      if (red == 0 && green == 255 && blue == 0) {
+        continue;
+      }
+
+      int code = HueBins.code((red << 16) | (green << 8) | blue);
+
+      if ((code & HueBins.ACHROMATIC) == 0) {
+        model.pixelCount++;
+        model.bins[code & HueBins.BIN_MASK] += 1;
+      }
+    }
+
+    for (int bin = 0; bin < HueBins.BIN_COUNT; bin++) {
+      model.binsNormalised[bin] = (double) model.bins[bin] / model.pixelCount;
+    }
+
+    return model;
+  }
+}
@@ -0,0 +1,149 @@
+import java.awt.Rectangle;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Parallel Strips
+ * Splits the scene into horizontal strips of rows and works on them together on
+ * a ForkJoinPool. A BitMask keeps every row in its own longs, so strips filling
+ * a mask never write to the same word.
+ *
+ * Labelling runs the ComponentLabeller on each strip alone, then joins the
+ * components that touch across each border with a union find over all strip
+ * components. Strip components are numbered in raster order and the lowest
+ * number stays the root, so the boxes and their order come out exactly as a
+ * single sequential label of the whole mask.
+ */
+class ParallelStrips {
+  static final int MIN_STRIP_ROWS = 16;
+
+  // strips per worker, so a strip full of matches does not hold up the rest
+  static final int STRIPS_PER_THREAD = 4;
+
+  interface RowTask {
+    void run(int firstRow, int endRow);
+  }
+
+  final ForkJoinPool pool;
+  final int height;
+  final int stripCount;
+
+  ParallelStrips(ForkJoinPool pool, int height) {
+    this.pool = pool;
+    this.height = height;
+    this.stripCount = Math.max(1, Math.min(height / MIN_STRIP_ROWS, pool.getParallelism() * STRIPS_PER_THREAD));
+  }
+
+  private int getFirstRow(int strip) {
+    return (int) ((long) strip * height / stripCount);
+  }
+
+  /**
+   * Runs task over every strip and waits for all of them.
+   */
+  void forEach(RowTask task) {
+    List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+
+    for (int strip = 0; strip < stripCount; strip++) {
+      int firstRow = getFirstRow(strip);
+      int endRow = getFirstRow(strip + 1);
+
+      tasks.add(pool.submit(() -> task.run(firstRow, endRow)));
+    }
+
+    for (ForkJoinTask<?> stripTask : tasks) {
+      stripTask.join();
+    }
+  }
+
+  private static int find(int[] parents, int component) {
+    while (parents[component] != component) {
+      parents[component] = parents[parents[component]];
+      component = parents[component];
+    }
+    return component;
+  }
+
+  private static void union(int[] parents, int a, int b) {
+    int rootA = find(parents, a);
+    int rootB = find(parents, b);
+
+    // Keep the earlier component as the root so the raster order survives
+    if (rootA < rootB) {
+      parents[rootB] = rootA;
+    } else if (rootB < rootA) {
+      parents[rootA] = rootB;
+    }
+  }
+
+  /**
+   * Same components, in the same order, as ComponentLabeller.label(mask).
+   */
+  List<ComponentLabeller.Component> label(BitMask mask) {
+    List<ForkJoinTask<ComponentLabeller.Strip>> tasks = new ArrayList<ForkJoinTask<ComponentLabeller.Strip>>();
+
+    for (int strip = 0; strip < stripCount; strip++) {
+      int firstRow = getFirstRow(strip);
+      int endRow = getFirstRow(strip + 1);
+
+      tasks.add(pool.submit(() -> new ComponentLabeller().labelStrip(mask, firstRow, endRow)));
+    }
+
+    ComponentLabeller.Strip[] strips = new ComponentLabeller.Strip[stripCount];
+    int[] offsets = new int[stripCount + 1];
+
+    for (int strip = 0; strip < stripCount; strip++) {
+      strips[strip] = tasks.get(strip).join();
+      offsets[strip + 1] = offsets[strip] + strips[strip].components.size();
+    }
+
+    int[] parents = new int[offsets[stripCount]];
+    for (int component = 0; component < parents.length; component++) {
+      parents[component] = component;
+    }
+
+    // Join runs on the last row of a strip to the runs they touch on the first row of the next
+    for (int strip = 1; strip < stripCount; strip++) {
+      ComponentLabeller.Strip above = strips[strip - 1];
+      ComponentLabeller.Strip below = strips[strip];
+      int first = 0;
+
+      for (int run = 0; run < below.topStarts.length; run++) {
+        int start = below.topStarts[run];
+        int end = below.topEnds[run];
+
+        while (first < above.bottomStarts.length && above.bottomEnds[first] < start - 1) {
+          first++;
+        }
+
+        for (int other = first; other < above.bottomStarts.length && above.bottomStarts[other] <= end + 1; other++) {
+          union(parents, offsets[strip - 1] + above.bottomComponents[other],
+              offsets[strip] + below.topComponents[run]);
+        }
+      }
+    }
+
+    Rectangle[] bounds = new Rectangle[parents.length];
+    int[] pixelCounts = new int[parents.length];
+
+    for (int strip = 0; strip < stripCount; strip++) {
+      for (int index = 0; index < strips[strip].components.size(); index++) {
+        ComponentLabeller.Component component = strips[strip].components.get(index);
+        int root = find(parents, offsets[strip] + index);
+
+        bounds[root] = bounds[root] == null ? component.bounds : bounds[root].union(component.bounds);
+        pixelCounts[root] += component.pixelCount;
+      }
+    }
+
+    List<ComponentLabeller.Component> components = new ArrayList<ComponentLabeller.Component>();
+
+    for (int component = 0; component < parents.length; component++) {
+      if (parents[component] == component) {
+        components.add(new ComponentLabeller.Component(bounds[component], pixelCounts[component]));
+      }
+    }
+
+    return components;
+  }
+}
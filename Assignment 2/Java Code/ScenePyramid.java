@@ -0,0 +1,111 @@
+import java.awt.Rectangle;
+import java.util.*;
+
+/**
+ * Scene Pyramid
+ * The scene's hue codes at a fraction of its resolution, one pixel sampled from
+ * the middle of every factor x factor block. Objects are first looked for here,
+ * and only the blobs big enough to survive the size filter are handed back as
+ * regions of the full scene to be matched again pixel by pixel.
+ *
+ * Results can differ from a full resolution match. A small or thin object can
+ * sample into specks that fall under CANDIDATE_AREA_FRACTION, and its box is
+ * then lost. In Kirby_Warning the 43x79 warning box at full resolution is not
+ * found with a factor of 2 or 4.
+ *
+ * Boxes and regions are transposed like the rest of ImageDisplay: x and width
+ * run down the rows.
+ */
+class ScenePyramid {
+  // coarse blobs smaller than this fraction of the largest are dropped, half the
+  // full resolution cut off so sampling noise does not lose real blobs
+  static final double CANDIDATE_AREA_FRACTION = 0.25;
+
+  final int factor;
+  final int sceneWidth;
+  final int sceneHeight;
+
+  final int width;
+  final int height;
+  final byte[] binCodes;
+
+  ScenePyramid(int[] pixels, int sceneWidth, int sceneHeight, int factor) {
+    this.factor = factor;
+    this.sceneWidth = sceneWidth;
+    this.sceneHeight = sceneHeight;
+    this.width = (sceneWidth + factor - 1) / factor;
+    this.height = (sceneHeight + factor - 1) / factor;
+    this.binCodes = new byte[width * height];
+
+    for (int row = 0, index = 0; row < height; row++) {
+      int sceneRow = Math.min(row * factor + factor / 2, sceneHeight - 1);
+
+      for (int col = 0; col < width; col++, index++) {
+        int sceneCol = Math.min(col * factor + factor / 2, sceneWidth - 1);
+
+        binCodes[index] = (byte) HueBins.code(pixels[sceneRow * sceneWidth + sceneCol]);
+      }
+    }
+  }
+
+  /**
+   * Coarse match masks of up to 64 objects, where object i matches the bins
+   * with bit i set in objectsByBin.
+   */
+  BitMask[] buildMatchMasks(long[] objectsByBin, int objectCount) {
+    BitMask[] matchMasks = new BitMask[objectCount];
+
+    for (int i = 0; i < objectCount; i++) {
+      matchMasks[i] = new BitMask(width, height);
+    }
+
+    for (int row = 0, index = 0; row < height; row++) {
+      for (int col = 0; col < width; col++, index++) {
+        int code = binCodes[index];
+
+        // Greys and near greys never match
+        if ((code & HueBins.NEAR_GREY) != 0) {
+          continue;
+        }
+
+        for (long objects = objectsByBin[code & HueBins.BIN_MASK]; objects != 0; objects &= objects - 1) {
+          matchMasks[Long.numberOfTrailingZeros(objects)].set(row, col);
+        }
+      }
+    }
+
+    return matchMasks;
+  }
+
+  /**
+   * Regions of the full scene around the larger blobs of a coarse mask, grown
+   * by one block on every side to take in the edges sampling missed.
+   */
+  List<Rectangle> getCandidateRegions(BitMask coarseMask) {
+    List<ComponentLabeller.Component> components = new ComponentLabeller().label(coarseMask);
+
+    int largestArea = 0;
+    for (ComponentLabeller.Component component : components) {
+      largestArea = Math.max(largestArea, component.bounds.width * component.bounds.height);
+    }
+
+    List<Rectangle> regions = new ArrayList<Rectangle>();
+
+    for (ComponentLabeller.Component component : components) {
+      Rectangle bounds = component.bounds;
+
+      if (bounds.width * bounds.height < CANDIDATE_AREA_FRACTION * largestArea) {
+        continue;
+      }
+
+      int top = Math.max(0, (bounds.x - 1) * factor);
+      int left = Math.max(0, (bounds.y - 1) * factor);
+      int bottom = Math.min(sceneHeight, (bounds.x + bounds.width + 1) * factor);
+      int right = Math.min(sceneWidth, (bounds.y + bounds.height + 1) * factor);
+
+      regions.add(new Rectangle(top, left, bottom - top, right - left));
+    }
+
+    return regions;
+  }
+}
@@ -0,0 +1,144 @@
+import java.awt.Rectangle;
+import java.util.*;
+
+/**
+ * Sliding Window Detector
+ * Finds an object by sliding square windows of a few sizes over the scene and
+ * comparing the hue histogram of each window with the object's. Window sizes
+ * are picked around the side of a square holding as many pixels as the object
+ * has, since the object may appear smaller or larger in the scene.
+ *
+ * The histogram is kept up to date as the window moves one column right, by
+ * taking out the column it leaves and adding the column it enters, so every
+ * step costs the window height instead of the window area.
+ *
+ * Windows of every size within the distance limit are kept largest first,
+ * since a smaller window inside the object matches as well but only covers
+ * part of it, and best distance first within a size. A window is dropped when
+ * its intersection over union with a kept one is above IOU_LIMIT, which
+ * thins out windows on the same spot but still reports a second instance of
+ * the object elsewhere. Much smaller windows inside a kept one overlap it too
+ * little to be dropped.
+ */
+class SlidingWindowDetector {
+  static final double[] WINDOW_SCALES = { 0.25, 0.35, 0.5, 0.71, 1, 1.41 };
+  static final int MIN_WINDOW_SIZE = 8;
+
+  // windows whose intersection over union with a kept window is above this are dropped
+  static final double IOU_LIMIT = 0.1;
+
+  // sweeps per window height, each sweep starts this fraction of the window lower
+  static final int ROW_STEPS_PER_WINDOW = 8;
+
+  final byte[] binCodes;
+  final int width;
+  final int height;
+
+  SlidingWindowDetector(byte[] binCodes, int width, int height) {
+    this.binCodes = binCodes;
+    this.width = width;
+    this.height = height;
+  }
+
+  private static double getDistance(int[] counts, double area, double[] objectBinsNormalised) {
+    double total = 0;
+
+    for (int bin = 0; bin < counts.length; bin++) {
+      double difference = counts[bin] / area - objectBinsNormalised[bin];
+      total += difference * difference;
+    }
+
+    return Math.sqrt(total);
+  }
+
+  private static double getIntersectionOverUnion(Rectangle first, Rectangle second) {
+    Rectangle overlap = first.intersection(second);
+
+    if (overlap.isEmpty()) {
+      return 0;
+    }
+
+    double intersection = (double) overlap.width * overlap.height;
+    double union = (double) first.width * first.height + (double) second.width * second.height - intersection;
+
+    return intersection / union;
+  }
+
+  /**
+   * Windows within maxDistance of the object, none with an intersection over
+   * union above IOU_LIMIT with another, largest and then best first. Only the
+   * first maxDetections are returned, 0 returns them all. Boxes are transposed
+   * like the rest of ImageDisplay: x and width run down the rows.
+   */
+  List<ImageDisplay.Detection> detect(int objectIndex, double[] objectBinsNormalised, int objectPixelCount,
+      double maxDistance, int maxDetections) {
+    List<ImageDisplay.Detection> candidates = new ArrayList<ImageDisplay.Detection>();
+    int[] counts = new int[HueBins.BIN_COUNT];
+
+    // Largest first
+    Set<Integer> windowSizes = new TreeSet<Integer>(Comparator.reverseOrder());
+    for (double scale : WINDOW_SCALES) {
+      int size = (int) Math.round(Math.sqrt(objectPixelCount) * scale);
+      windowSizes.add(Math.max(MIN_WINDOW_SIZE, Math.min(size, Math.min(width, height))));
+    }
+
+    for (int size : windowSizes) {
+      double area = (double) size * size;
+      int rowStep = Math.max(1, size / ROW_STEPS_PER_WINDOW);
+
+      for (int top = 0; top + size <= height; top += rowStep) {
+        Arrays.fill(counts, 0);
+
+        for (int row = top; row < top + size; row++) {
+          for (int col = 0; col < size; col++) {
+            counts[binCodes[row * width + col] & HueBins.BIN_MASK]++;
+          }
+        }
+
+        for (int left = 0;; left++) {
+          double distance = getDistance(counts, area, objectBinsNormalised);
+
+          if (distance <= maxDistance) {
+            candidates.add(new ImageDisplay.Detection(objectIndex, new Rectangle(top, left, size, size), distance));
+          }
+
+          if (left + size == width) {
+            break;
+          }
+
+          // Slide one column right
+          for (int row = top, index = top * width + left; row < top + size; row++, index += width) {
+            counts[binCodes[index] & HueBins.BIN_MASK]--;
+            counts[binCodes[index + size] & HueBins.BIN_MASK]++;
+          }
+        }
+      }
+    }
+
+    candidates.sort(Comparator.<ImageDisplay.Detection, Integer>comparing(candidate -> candidate.boundingBox.width,
+        Comparator.reverseOrder()).thenComparingDouble(candidate -> candidate.distance));
+
+    List<ImageDisplay.Detection> detections = new ArrayList<ImageDisplay.Detection>();
+
+    for (ImageDisplay.Detection candidate : candidates) {
+      if (maxDetections > 0 && detections.size() == maxDetections) {
+        break;
+      }
+
+      boolean isOverlapping = false;
+
+      for (ImageDisplay.Detection detection : detections) {
+        if (getIntersectionOverUnion(candidate.boundingBox, detection.boundingBox) > IOU_LIMIT) {
+          isOverlapping = true;
+          break;
+        }
+      }
+
+      if (!isOverlapping) {
+        detections.add(candidate);
+      }
+    }
+
+    return detections;
+  }
+}
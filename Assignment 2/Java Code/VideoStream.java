@@ -0,0 +1,409 @@
+import java.awt.Rectangle;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Video Stream
+ * Runs the detector over every frame of a video stored as raw planar frames one
+ * after another, each laid out like a single .rgb image: the red plane, then
+ * the green, then the blue. Every frame becomes one JSON line in the results
+ * file, with the same detections a single scene of that frame would give:
+ *
+ * {"frame":0,"ms":1.2,"changedTiles":396,"detections":[...]}
+ *
+ * Frames are cut into TILE_SIZE square tiles with a checksum each, and only
+ * tiles whose checksum differs from the last frame have their hue codes and
+ * match mask bits worked out again. An object whose mask did not change keeps
+ * last frame's boxes without labelling, and any of last frame's boxes that no
+ * changed tile touches keeps its distance. On a static camera most frames only
+ * cost the read and the checksums.
+ *
+ * Only the hue mask blob engine at full resolution is supported. Object images
+ * are read at the usual 640x480 whatever the frame size.
+ *
+ * Usage: java ImageDisplay --video=file.rgb object_file ... [--size=352x288]
+ * [--results=file.jsonl] plus any ImageDisplay flag
+ */
+class VideoStream {
+  // 64 is a multiple of it, so a tile row never straddles two mask words
+  static final int TILE_SIZE = 16;
+
+  String videoPath;
+  String resultsPath = "video-results.jsonl";
+
+  // CIF by default
+  int frameWidth = 352;
+  int frameHeight = 288;
+
+  List<String> objectPaths = new ArrayList<String>();
+
+  // flags handed on to ImageDisplay
+  List<String> imageDisplayFlags = new ArrayList<String>();
+
+  // holds the pixels, codes and object histograms of the current frame
+  ImageDisplay frame;
+
+  int tileColumns;
+  int tileRows;
+  long[] tileChecksums;
+  boolean[] isTileChanged;
+  boolean hasFrame = false;
+
+  BitMask[] matchMasks;
+  boolean[] isMaskChanged;
+
+  // bins to objects, one table per 64 objects
+  long[][] objectsByBin;
+
+  // every box of each object in the last frame with its distance, kept or not
+  List<List<ImageDisplay.Detection>> objectCandidates = new ArrayList<List<ImageDisplay.Detection>>();
+
+  boolean validateArgs(String[] args) {
+    // 1. --video=raw video file
+    // Followed by object files, and optional flags
+
+    for (String arg : args) {
+      if (!arg.startsWith("--")) {
+        objectPaths.add(arg);
+        continue;
+      }
+
+      int separator = arg.indexOf('=');
+
+      if (separator == -1) {
+        System.out.println("Invalid flag " + arg + ", Please enter flags in the format '--name=value'");
+        return false;
+      }
+
+      String name = arg.substring(2, separator);
+      String value = arg.substring(separator + 1);
+
+      switch (name) {
+        case "video":
+          videoPath = value;
+          break;
+        case "results":
+          resultsPath = value;
+          break;
+        case "size":
+          String[] size = value.split("x");
+
+          // Size should be WIDTHxHEIGHT
+          if (size.length != 2) {
+            System.out.println("Invalid size, Please enter the frame size as WIDTHxHEIGHT");
+            return false;
+          }
+
+          frameWidth = Integer.parseInt(size[0]);
+          frameHeight = Integer.parseInt(size[1]);
+          break;
+        default:
+          imageDisplayFlags.add(arg);
+      }
+    }
+
+    if (!Files.isRegularFile(Path.of(videoPath)) || objectPaths.isEmpty()) {
+      System.out.println("Need a video and an object atleast");
+      return false;
+    }
+
+    System.out.println("Video: " + videoPath);
+    System.out.println("Frame Size: " + frameWidth + "x" + frameHeight);
+    System.out.println("Objects: " + objectPaths.size());
+    System.out.println("Results: " + resultsPath);
+    System.out.println();
+
+    return true;
+  }
+
+  private void startStream(ImageDisplay library) {
+    int objectCount = objectPaths.size();
+
+    frame = new ImageDisplay();
+    frame.originalWidth = frameWidth;
+    frame.originalHeight = frameHeight;
+    frame.objectImagePaths = library.objectImagePaths;
+    frame.objectImageHSVBins = library.objectImageHSVBins;
+    frame.objectImageHSVBinsNormalised = library.objectImageHSVBinsNormalised;
+    frame.isQuiet = true;
+
+    frame.originalPixels = new int[frameWidth * frameHeight];
+    frame.sceneBinCodes = new byte[frameWidth * frameHeight];
+
+    if (library.isParallel) {
+      frame.parallelStrips = new ParallelStrips(ForkJoinPool.commonPool(), frameHeight);
+    }
+
+    tileColumns = (frameWidth + TILE_SIZE - 1) / TILE_SIZE;
+    tileRows = (frameHeight + TILE_SIZE - 1) / TILE_SIZE;
+    tileChecksums = new long[tileColumns * tileRows];
+    isTileChanged = new boolean[tileColumns * tileRows];
+
+    matchMasks = new BitMask[objectCount];
+    isMaskChanged = new boolean[objectCount];
+
+    for (int i = 0; i < objectCount; i++) {
+      matchMasks[i] = new BitMask(frameWidth, frameHeight);
+      objectCandidates.add(new ArrayList<ImageDisplay.Detection>());
+    }
+
+    objectsByBin = new long[(objectCount + 63) / 64][];
+
+    for (int chunk = 0; chunk < objectsByBin.length; chunk++) {
+      objectsByBin[chunk] = frame.getObjectsByBin(chunk * 64);
+    }
+  }
+
+  /**
+   * FNV-1a over the tile's bytes in all three planes.
+   */
+  private long getChecksum(byte[] bytes, int top, int left, int bottom, int right) {
+    int planeLength = frameWidth * frameHeight;
+    long checksum = 0xcbf29ce484222325L;
+
+    for (int plane = 0; plane < 3; plane++) {
+      for (int row = top; row < bottom; row++) {
+        int first = plane * planeLength + row * frameWidth;
+
+        for (int index = first + left; index < first + right; index++) {
+          checksum = (checksum ^ (bytes[index] & 0xff)) * 0x100000001b3L;
+        }
+      }
+    }
+
+    return checksum;
+  }
+
+  /**
+   * Works out the pixels, codes and match mask bits of one tile again, marking
+   * the objects whose mask bits changed.
+   */
+  private void updateTile(byte[] bytes, int top, int left, int bottom, int right, long[] rowBits) {
+    int planeLength = frameWidth * frameHeight;
+    long tileBits = ((1L << (right - left)) - 1) << (left & 63);
+
+    for (int row = top; row < bottom; row++) {
+      Arrays.fill(rowBits, 0);
+
+      for (int col = left; col < right; col++) {
+        int index = row * frameWidth + col;
+        int red = bytes[index] & 0xff;
+        int green = bytes[index + planeLength] & 0xff;
+        int blue = bytes[index + planeLength * 2] & 0xff;
+
+        frame.originalPixels[index] = 0xff000000 | (red << 16) | (green << 8) | blue;
+
+        int code = HueBins.code(frame.originalPixels[index]);
+        frame.sceneBinCodes[index] = (byte) code;
+
+        // Greys and near greys never match
+        if ((code & HueBins.NEAR_GREY) != 0) {
+          continue;
+        }
+
+        for (int chunk = 0; chunk < objectsByBin.length; chunk++) {
+          for (long objects = objectsByBin[chunk][code & HueBins.BIN_MASK]; objects != 0; objects &= objects - 1) {
+            rowBits[chunk * 64 + Long.numberOfTrailingZeros(objects)] |= 1L << col;
+          }
+        }
+      }
+
+      for (int i = 0; i < matchMasks.length; i++) {
+        long[] maskBits = matchMasks[i].bits;
+        int word = row * matchMasks[i].rowWords + (left >>> 6);
+
+        if ((maskBits[word] & tileBits) != rowBits[i]) {
+          maskBits[word] = (maskBits[word] & ~tileBits) | rowBits[i];
+          isMaskChanged[i] = true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Compares every tile's checksum with the last frame and updates the ones
+   * that changed, returning how many did.
+   */
+  private int updateTiles(byte[] bytes) {
+    long[] rowBits = new long[matchMasks.length];
+    int changedCount = 0;
+
+    for (int tileRow = 0; tileRow < tileRows; tileRow++) {
+      for (int tileColumn = 0; tileColumn < tileColumns; tileColumn++) {
+        int top = tileRow * TILE_SIZE;
+        int left = tileColumn * TILE_SIZE;
+        int bottom = Math.min(top + TILE_SIZE, frameHeight);
+        int right = Math.min(left + TILE_SIZE, frameWidth);
+
+        int tile = tileRow * tileColumns + tileColumn;
+        long checksum = getChecksum(bytes, top, left, bottom, right);
+
+        isTileChanged[tile] = !hasFrame || checksum != tileChecksums[tile];
+
+        if (isTileChanged[tile]) {
+          tileChecksums[tile] = checksum;
+          updateTile(bytes, top, left, bottom, right, rowBits);
+          changedCount++;
+        }
+      }
+    }
+
+    hasFrame = true;
+
+    return changedCount;
+  }
+
+  private boolean isTouchingChangedTile(Rectangle box) {
+    // Boxes are transposed, x and width run down the rows
+    for (int tileRow = box.x / TILE_SIZE; tileRow <= (box.x + box.width - 1) / TILE_SIZE; tileRow++) {
+      for (int tileColumn = box.y / TILE_SIZE; tileColumn <= (box.y + box.height - 1) / TILE_SIZE; tileColumn++) {
+        if (isTileChanged[tileRow * tileColumns + tileColumn]) {
+          return true;
+        }
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Detections of the current frame, seeded with the boxes of the last one.
+   */
+  private List<ImageDisplay.Detection> detectFrame() {
+    List<ImageDisplay.Detection> detections = new ArrayList<ImageDisplay.Detection>();
+    int[] binCounts = new int[HueBins.BIN_COUNT];
+
+    for (int i = 0; i < matchMasks.length; i++) {
+      List<ImageDisplay.Detection> previousCandidates = objectCandidates.get(i);
+      List<Rectangle> boxes;
+
+      if (isMaskChanged[i]) {
+        boxes = frame.getObjectBoundingBoxes(matchMasks[i]);
+        isMaskChanged[i] = false;
+      } else {
+        boxes = new ArrayList<Rectangle>();
+
+        for (ImageDisplay.Detection candidate : previousCandidates) {
+          boxes.add(candidate.boundingBox);
+        }
+      }
+
+      List<ImageDisplay.Detection> candidates = new ArrayList<ImageDisplay.Detection>();
+
+      for (Rectangle box : boxes) {
+        ImageDisplay.Detection seed = null;
+
+        if (!isTouchingChangedTile(box)) {
+          for (ImageDisplay.Detection candidate : previousCandidates) {
+            if (candidate.boundingBox.equals(box)) {
+              seed = candidate;
+              break;
+            }
+          }
+        }
+
+        double distance = seed != null ? seed.distance : frame.getBoxDistance(box, i, binCounts);
+        candidates.add(new ImageDisplay.Detection(i, box, distance));
+      }
+
+      objectCandidates.set(i, candidates);
+
+      for (ImageDisplay.Detection candidate : candidates) {
+        if (candidate.distance <= ImageDisplay.MAX_BOX_DISTANCE) {
+          detections.add(candidate);
+        }
+      }
+    }
+
+    return detections;
+  }
+
+  void run() {
+    System.setProperty("java.awt.headless", "true");
+
+    ImageDisplay library = new ImageDisplay();
+    for (String flag : imageDisplayFlags) {
+      if (!library.parseOption(flag)) {
+        return;
+      }
+    }
+
+    if (library.isWindowEngine || library.pyramidFactor > 0 || library.nearestObjects > 0) {
+      System.out.println("Invalid engine, Please use --engine=blobs, --pyramid=0 and --nearest=0 for video");
+      return;
+    }
+
+    // Object images keep the default size
+    library.setObjectImagePaths(objectPaths.toArray(new String[0]));
+
+    try (StageMetrics.Stage stage = ImageDisplay.metrics.start("loadObjectModels")) {
+      library.loadObjectModels();
+      stage.addPixels((long) objectPaths.size() * library.originalWidth * library.originalHeight);
+    }
+
+    startStream(library);
+
+    int frameLength = frameWidth * frameHeight * 3;
+    byte[] bytes = new byte[frameLength];
+
+    int frameCount = 0;
+    int staticFrames = 0;
+    long startTime = System.nanoTime();
+
+    try (InputStream in = Files.newInputStream(Path.of(videoPath));
+        PrintWriter out = new PrintWriter(Files.newBufferedWriter(Path.of(resultsPath)))) {
+      while (true) {
+        long frameStartTime = System.nanoTime();
+        int bytesRead = in.readNBytes(bytes, 0, frameLength);
+
+        if (bytesRead < frameLength) {
+          if (bytesRead > 0) {
+            System.out.println("Ignoring " + bytesRead + " bytes of a partial frame at the end");
+          }
+          break;
+        }
+
+        int changedTiles;
+        List<ImageDisplay.Detection> detections;
+
+        try (StageMetrics.Stage stage = ImageDisplay.metrics.start("updateTiles")) {
+          changedTiles = updateTiles(bytes);
+          stage.addPixels(frameWidth * frameHeight);
+        }
+
+        try (StageMetrics.Stage stage = ImageDisplay.metrics.start("detectFrame")) {
+          detections = detectFrame();
+          stage.addPixels(frameWidth * frameHeight);
+        }
+
+        if (changedTiles == 0) {
+          staticFrames++;
+        }
+
+        StringBuilder line = new StringBuilder();
+        line.append("{\"frame\":").append(frameCount)
+            .append(String.format(",\"ms\":%.1f", (System.nanoTime() - frameStartTime) / 1e6))
+            .append(",\"changedTiles\":").append(changedTiles).append(',');
+        BatchScanner.appendDetections(line, frame, detections);
+        line.append('}');
+
+        out.println(line);
+        frameCount++;
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+
+    double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+
+    System.out.println("Frames: " + frameCount);
+    System.out.println("Static Frames: " + staticFrames);
+    System.out.printf("Stream Time: %.1f ms%n", elapsedSeconds * 1000);
+    System.out.printf("Throughput: %.1f fps%n", frameCount / elapsedSeconds);
+    System.out.println("Results Written To: " + resultsPath);
+
+    ImageDisplay.metrics.report();
+  }
+}
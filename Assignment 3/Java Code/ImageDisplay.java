@@ -1,55 +1,9 @@
 import java.awt.Graphics2D;
 import java.awt.image.*;
 import java.io.*;
+import java.util.*;
 import javax.swing.*;
 
-class RGB {
-	float r, g, b;
-
-	RGB(float r, float g, float b) {
-		this.r = r;
-		this.g = g;
-		this.b = b;
-	}
-
-	RGB avg(RGB rgb) {
-		float r = (this.r + rgb.r) / 2;
-		float g = (this.g + rgb.g) / 2;
-		float b = (this.b + rgb.b) / 2;
-
-		return new RGB(r, g, b);
-	}
-
-	RGB diff(RGB rgb) {
-		float r = (this.r - rgb.r) / 2;
-		float g = (this.g - rgb.g) / 2;
-		float b = (this.b - rgb.b) / 2;
-
-		return new RGB(r, g, b);
-	}
-
-	RGB add(RGB rgb) {
-		float r = (this.r + rgb.r);
-		float g = (this.g + rgb.g);
-		float b = (this.b + rgb.b);
-
-		return new RGB(r, g, b);
-	}
-
-	RGB sub(RGB rgb) {
-		float r = (this.r - rgb.r);
-		float g = (this.g - rgb.g);
-		float b = (this.b - rgb.b);
-
-		return new RGB(r, g, b);
-	}
-
-	@Override
-	public String toString() {
-		return "RGB: " + this.r + " " + this.g + " " + this.b;
-	}
-}
-
 public class ImageDisplay {
 	JFrame frame;
 
@@ -65,15 +19,27 @@ public class ImageDisplay {
 	int originalWidth = 512; // default image width and height
 	int originalHeight = 512;
 
-	RGB[][] originalMatrix = new RGB[originalWidth][originalHeight];
+	// red, green and blue planes, pixel (x, y) at y * originalWidth + x, transformed in place
+	float[][] planes = new float[3][originalWidth * originalHeight];
+
+	// one row or column of a plane, the only scratch space the transform needs
+	float[] scratch = new float[Math.max(originalWidth, originalHeight)];
+
+	// stage timings of every level built this run
+	static final StageMetrics metrics = new StageMetrics("Assignment 3");
 
 	private void resetOriginalMatrix() {
-		for (int y = 0; y < originalHeight; y++) {
-			for (int x = 0; x < originalWidth; x++) {
-				int pixel = originalImage.getRGB(x, y);
+		try (StageMetrics.Stage stage = metrics.start("resetOriginalMatrix")) {
+			int[] pixels = ((DataBufferInt) originalImage.getRaster().getDataBuffer()).getData();
 
-				originalMatrix[x][y] = getRGB(pixel);
+			for (int index = 0; index < pixels.length; index++) {
+				int pixel = pixels[index];
+
+				planes[0][index] = pixel >> 16 & 0xff;
+				planes[1][index] = pixel >> 8 & 0xff;
+				planes[2][index] = pixel & 0xff;
 			}
+			stage.addPixels(originalWidth * originalHeight);
 		}
 	}
 
@@ -84,37 +50,60 @@ public class ImageDisplay {
 		return lvl + 1;
 	}
 
-	private RGB getRGB(int pixel) {
-		int r = pixel >> 16 & 0xff;
-		int g = pixel >> 8 & 0xff;
-		int b = pixel & 0xff;
+	private int getPixel(int index) {
+		int r = (int) planes[0][index];
+		int g = (int) planes[1][index];
+		int b = (int) planes[2][index];
 
-		RGB rgb = new RGB(r, g, b);
+		int pix = 0xff000000 | ((r & 0xff) << 16) | ((g & 0xff) << 8) | (b & 0xff);
 
-		return rgb;
+		return pix;
 	}
 
-	private int getPixel(RGB rgb) {
-		int r = (int) rgb.r;
-		int g = (int) rgb.g;
-		int b = (int) rgb.b;
+	/**
+	 * Forward Haar
+	 * Splits the length values of plane starting at first, stride apart, into
+	 * their pairwise averages followed by their pairwise halved differences.
+	 * Each pair is lifted, the difference first and the average from it, and
+	 * laid out through scratch.
+	 */
+	private void forwardHaar(float[] plane, int first, int stride, int length) {
+		int half = length / 2;
+
+		for (int i = 0, index = first; i < half; i++, index += 2 * stride) {
+			float even = plane[index];
+			float odd = plane[index + stride];
 
-		int pix = 0xff000000 | ((r & 0xff) << 16) | ((g & 0xff) << 8) | (b & 0xff);
+			float diff = (even - odd) / 2;
 
-		return pix;
+			// Same as (even + odd) / 2, halving 8 bit values a few times never runs out of float precision
+			scratch[i] = odd + diff;
+			scratch[half + i] = diff;
+		}
+
+		for (int i = 0, index = first; i < length; i++, index += stride) {
+			plane[index] = scratch[i];
+		}
 	}
 
-	private RGB[][] copyMatrix(RGB[][] mat) {
-		RGB[][] finalMatrix = new RGB[originalWidth][originalHeight];
+	/**
+	 * Inverse Haar
+	 * Undoes forwardHaar, turning the averages and differences back into pairs.
+	 */
+	private void inverseHaar(float[] plane, int first, int stride, int length) {
+		int half = length / 2;
+
+		for (int i = 0, index = first; i < half; i++, index += stride) {
+			float avg = plane[index];
+			float diff = plane[index + half * stride];
 
-		for (int y = 0; y < originalHeight; y++) {
-			for (int x = 0; x < originalWidth; x++) {
-				RGB rgb = mat[x][y];
-				finalMatrix[x][y] = new RGB(rgb.r, rgb.g, rgb.b);
-			}
+			scratch[2 * i] = avg + diff;
+			scratch[2 * i + 1] = avg - diff;
 		}
 
-		return finalMatrix;
+		for (int i = 0, index = first; i < length; i++, index += stride) {
+			plane[index] = scratch[i];
+		}
 	}
 
 	private void reduceImageMatrix(int factor) {
@@ -122,85 +111,44 @@ public class ImageDisplay {
 		int width = originalWidth / scale;
 		int height = originalHeight / scale;
 
-		RGB[][] rowUpdatedMatrix = copyMatrix(originalMatrix);
-
-		for (int y = 0; y < height; y++) {
-			for (int x = 0; x < width; x += 2) {
-				RGB left_rgb = originalMatrix[x][y];
-				RGB right_rgb = originalMatrix[x + 1][y];
-
-				RGB avg_rgb = left_rgb.avg(right_rgb);
-				RGB diff_rgb = left_rgb.diff(right_rgb);
-
-				rowUpdatedMatrix[x / 2][y] = avg_rgb;
-				rowUpdatedMatrix[width / 2 + x / 2][y] = diff_rgb;
+		for (float[] plane : planes) {
+			for (int y = 0; y < height; y++) {
+				forwardHaar(plane, y * originalWidth, 1, width);
 			}
-		}
-
-		RGB[][] colUpdatedMatrix = copyMatrix(rowUpdatedMatrix);
-
-		for (int x = 0; x < width; x++) {
-			for (int y = 0; y < height; y += 2) {
-				RGB top_rgb = rowUpdatedMatrix[x][y];
-				RGB bottom_rgb = rowUpdatedMatrix[x][y + 1];
-
-				RGB avg_rgb = top_rgb.avg(bottom_rgb);
-				RGB diff_rgb = top_rgb.diff(bottom_rgb);
 
-				colUpdatedMatrix[x][y / 2] = avg_rgb;
-				colUpdatedMatrix[x][height / 2 + y / 2] = diff_rgb;
+			for (int x = 0; x < width; x++) {
+				forwardHaar(plane, x, originalWidth, height);
 			}
 		}
-
-		originalMatrix = copyMatrix(colUpdatedMatrix);
 	}
 
 	private void zeroImageMatrix(int factor) {
 		int initial_y = originalHeight / factor;
 		int initial_x = originalWidth / factor;
 
-		for (int y = 0; y < originalHeight; y++) {
-			for (int x = initial_x; x < originalWidth; x++) {
-				originalMatrix[x][y] = new RGB(0, 0, 0);
+		for (float[] plane : planes) {
+			for (int y = 0; y < initial_y; y++) {
+				Arrays.fill(plane, y * originalWidth + initial_x, (y + 1) * originalWidth, 0);
 			}
-		}
 
-		for (int y = initial_y; y < originalHeight; y++) {
-			for (int x = 0; x < originalWidth; x++) {
-				originalMatrix[x][y] = new RGB(0, 0, 0);
-			}
+			Arrays.fill(plane, initial_y * originalWidth, plane.length, 0);
 		}
 	}
 
 	private void reconstructMatrix(int factor) {
-		int height = originalHeight / factor;
-		int width = originalWidth / factor;
+		// Undoes reduceImageMatrix(factor), whose averages fill the top left quarter
+		int height = originalHeight / factor * 2;
+		int width = originalWidth / factor * 2;
 
-		RGB[][] colUpdatedMatrix = copyMatrix(originalMatrix);
-
-		for (int x = 0; x < width; x++) {
-			for (int y = 0; y < height; y++) {
-				RGB top_rgb = originalMatrix[x][y].add(originalMatrix[x][y + height]);
-				RGB bottom_rgb = originalMatrix[x][y].sub(originalMatrix[x][y + height]);
-
-				colUpdatedMatrix[x][y * 2] = top_rgb;
-				colUpdatedMatrix[x][y * 2 + 1] = bottom_rgb;
-			}
-		}
-
-		RGB[][] rowUpdatedMatrix = copyMatrix(colUpdatedMatrix);
-
-		for (int y = 0; y < height * factor; y++) {
+		for (float[] plane : planes) {
 			for (int x = 0; x < width; x++) {
-				RGB left_rgb = colUpdatedMatrix[x][y].add(colUpdatedMatrix[x + width][y]);
-				RGB right_rgb = colUpdatedMatrix[x][y].sub(colUpdatedMatrix[x + width][y]);
+				inverseHaar(plane, x, originalWidth, height);
+			}
 
-				rowUpdatedMatrix[x * 2][y] = left_rgb;
-				rowUpdatedMatrix[x * 2 + 1][y] = right_rgb;
+			for (int y = 0; y < height; y++) {
+				inverseHaar(plane, y * originalWidth, 1, width);
 			}
 		}
-
-		originalMatrix = copyMatrix(rowUpdatedMatrix);
 	}
 
 	/**
@@ -251,28 +199,38 @@ public class ImageDisplay {
 		for (int i = 1; i < scaledLevels; i++) {
 			int currentLevelFactor = (int) Math.pow(2, i);
 
-			reduceImageMatrix(currentLevelFactor);
+			try (StageMetrics.Stage stage = metrics.start("reduceImageMatrix")) {
+				reduceImageMatrix(currentLevelFactor);
+				stage.addPixels(originalWidth / (currentLevelFactor / 2) * (originalHeight / (currentLevelFactor / 2)));
+			}
 		}
 
 		int level = scaledLevels - 1;
 		int zeroFactor = (int) Math.pow(2, level);
 
-		zeroImageMatrix(zeroFactor);
+		try (StageMetrics.Stage stage = metrics.start("zeroImageMatrix")) {
+			zeroImageMatrix(zeroFactor);
+			stage.addPixels(originalWidth * originalHeight);
+		}
 
 		for (int i = scaledLevels - 1; i > 0; i--) {
 			int currentLevelFactor = (int) Math.pow(2, i);
 
-			reconstructMatrix(currentLevelFactor);
+			try (StageMetrics.Stage stage = metrics.start("reconstructMatrix")) {
+				reconstructMatrix(currentLevelFactor);
+				stage.addPixels(originalWidth / currentLevelFactor * (originalHeight / currentLevelFactor) * 4);
+			}
 		}
 
 		BufferedImage compressedImage = new BufferedImage(originalWidth, originalHeight, BufferedImage.TYPE_INT_RGB);
 
-		for (int y = 0; y < originalWidth; y++) {
-			for (int x = 0; x < originalHeight; x++) {
-				int pixel = getPixel(originalMatrix[x][y]);
+		try (StageMetrics.Stage stage = metrics.start("writeImage")) {
+			int[] pixels = ((DataBufferInt) compressedImage.getRaster().getDataBuffer()).getData();
 
-				compressedImage.setRGB(x, y, pixel);
+			for (int index = 0; index < pixels.length; index++) {
+				pixels[index] = getPixel(index);
 			}
+			stage.addPixels(originalWidth * originalHeight);
 		}
 
 		return compressedImage;
@@ -283,7 +241,10 @@ public class ImageDisplay {
 		originalImage = new BufferedImage(originalWidth, originalHeight, BufferedImage.TYPE_INT_RGB);
 
 		// reading the original image
-		readImageRGB(originalImage);
+		try (StageMetrics.Stage stage = metrics.start("readImageRGB")) {
+			readImageRGB(originalImage);
+			stage.addPixels(originalWidth * originalHeight);
+		}
 		resetOriginalMatrix();
 
 		// creating a new JFrame to display image
@@ -320,21 +281,36 @@ public class ImageDisplay {
 			}
 		}
 
+		metrics.report();
 	}
 
 	public boolean validateArgs(String[] args) {
 		// Number of arguments is 2
 		// 1. Image Path
 		// 2. Reconstruction factor
+		// Followed by an optional --metrics=file.json
+
+		List<String> values = new ArrayList<String>();
+
+		for (String arg : args) {
+			if (!arg.startsWith("--")) {
+				values.add(arg);
+			} else if (arg.startsWith("--metrics=")) {
+				metrics.jsonPath = arg.substring("--metrics=".length());
+			} else {
+				System.out.println("Unknown flag " + arg);
+				return false;
+			}
+		}
 
-		if (args.length != 2) {
+		if (values.size() != 2) {
 			System.out.println("Invalid arguements, Please enter in the format 'java class image_file number'");
 			return false;
 		}
 
-		imgPath = args[0];
+		imgPath = values.get(0);
 
-		reductionFactor = Integer.parseInt(args[1]);
+		reductionFactor = Integer.parseInt(values.get(1));
 
 		System.out.println("Image: " + imgPath);
 		System.out.println("Reconstruction: " + reductionFactor);